@@ -0,0 +1,44 @@
+package com.example.apiestoque2.carga;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Produtos gerados dentro do banco (generate_series), com semente fixa: a mesma quantidade gera sempre os mesmos
+// dados. Nome "Produto <id>", preco entre 1 e 1000, estoque entre 0 e 500
+final class GeradorProdutos {
+    private static final String SQL_INSERIR =
+            "INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+            "SELECT 'Produto ' || i, 'Descrição do produto ' || i || ' gerado para o teste de carga', " +
+            "round((1 + random() * 999)::numeric, 2), floor(random() * 501)::int " +
+            "FROM generate_series(?, ?) AS i";
+    private static final int BLOCO = 100_000;
+
+    private GeradorProdutos(){}
+
+    // roda com a aplicacao no ar (as tabelas vem das migracoes); a carga nao gera eventos no outbox (V9)
+    static void gerar(DataSource dataSource, long quantidade) throws SQLException {
+        try(Connection conexao = dataSource.getConnection()){
+            conexao.setAutoCommit(false);
+            try(Statement comando = conexao.createStatement()){
+                comando.execute("SET LOCAL produtos.eventos = 'false'");
+                comando.execute("SELECT setseed(0.42)");
+            }
+            try(PreparedStatement inserir = conexao.prepareStatement(SQL_INSERIR)){
+                for(long inicio = 1; inicio <= quantidade; inicio += BLOCO){
+                    inserir.setLong(1, inicio);
+                    inserir.setLong(2, Math.min(inicio + BLOCO - 1, quantidade));
+                    inserir.executeUpdate();
+                }
+            }
+            conexao.commit();
+
+            conexao.setAutoCommit(true);
+            try(Statement comando = conexao.createStatement()){
+                comando.execute("VACUUM ANALYZE produto");
+            }
+        }
+    }
+}
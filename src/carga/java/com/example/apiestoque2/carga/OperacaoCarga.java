@@ -0,0 +1,157 @@
+package com.example.apiestoque2.carga;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Requisicoes do mix. Leituras e atualizacoes usam os primeiros 90% dos IDs gerados; as exclusoes consomem os
+// 10% finais, do maior para o menor, para que nenhuma leitura caia num produto ja excluido
+enum OperacaoCarga {
+    SELECIONAR("selecionar") {
+        @Override
+        HttpRequest requisicao(Alvo alvo) {
+            return alvo.get("/selecionar/" + alvo.idLeitura());
+        }
+    },
+    BUSCAR_POR_NOME_E_PRECO("buscarPorNomeEPrecoMenorQue") {
+        @Override
+        HttpRequest requisicao(Alvo alvo) {
+            ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+            return alvo.get("/buscarPorNomeEPrecoMenorQue?nome=Produto%20" + aleatorio.nextInt(100, 1000) + "%25&preco="
+                    + aleatorio.nextInt(100, 1000));
+        }
+    },
+    BUSCAR("buscar") {
+        @Override
+        HttpRequest requisicao(Alvo alvo) {
+            return alvo.get("/buscar?tamanho=20&termo=" + ThreadLocalRandom.current().nextInt(1000, 10000));
+        }
+    },
+    SELECIONAR_PAGINADO("selecionarPaginado") {
+        @Override
+        HttpRequest requisicao(Alvo alvo) {
+            return alvo.get("/selecionarPaginado?tamanho=100&cursor=" + alvo.idLeitura());
+        }
+    },
+    INSERIR("inserir") {
+        @Override
+        HttpRequest requisicao(Alvo alvo) {
+            ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+            return alvo.enviar("POST", "/inserir", String.format(Locale.ROOT,
+                    "{\"nome\":\"Carga %d\",\"descricao\":\"Produto criado pelo teste de carga\",\"preco\":%.2f,\"quantidadeEstoque\":%d}",
+                    aleatorio.nextInt(), aleatorio.nextDouble(1, 1000), aleatorio.nextInt(0, 500)));
+        }
+    },
+    ATUALIZAR_PARCIAL("atualizarParcial") {
+        @Override
+        HttpRequest requisicao(Alvo alvo) {
+            ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+            String corpo = aleatorio.nextBoolean()
+                    ? String.format(Locale.ROOT, "{\"preco\":%.2f}", aleatorio.nextDouble(1, 1000))
+                    : "{\"quantidadeEstoque\":" + aleatorio.nextInt(0, 500) + "}";
+            return alvo.enviar("PATCH", "/atualizarParcial/" + alvo.idLeitura(), corpo);
+        }
+    },
+    EXCLUIR("excluir") {
+        @Override
+        HttpRequest requisicao(Alvo alvo) {
+            return HttpRequest.newBuilder(alvo.uri("/excluir/" + alvo.idExclusao())).DELETE().build();
+        }
+    };
+
+    private final String nome;
+
+    OperacaoCarga(String nome){
+        this.nome = nome;
+    }
+
+    abstract HttpRequest requisicao(Alvo alvo);
+
+    String nome(){
+        return nome;
+    }
+
+    static OperacaoCarga porNome(String nome){
+        for(OperacaoCarga operacao : values()){
+            if(operacao.nome.equals(nome)) return operacao;
+        }
+        throw new IllegalArgumentException("operação desconhecida no mix: " + nome);
+    }
+
+    // "selecionar=40,inserir=10" -> pesos por operacao
+    static Map<OperacaoCarga, Integer> lerMix(String mix){
+        Map<OperacaoCarga, Integer> pesos = new EnumMap<>(OperacaoCarga.class);
+        for(String item : mix.split(",")){
+            String[] partes = item.trim().split("=");
+            if(partes.length != 2) throw new IllegalArgumentException("item inválido no mix: " + item);
+            pesos.put(porNome(partes[0].trim()), Integer.parseInt(partes[1].trim()));
+        }
+        return pesos;
+    }
+
+    static final class Sorteio {
+        private final OperacaoCarga[] operacoes;
+        private final int[] acumulado;
+
+        Sorteio(Map<OperacaoCarga, Integer> pesos){
+            operacoes = pesos.keySet().toArray(OperacaoCarga[]::new);
+            acumulado = new int[operacoes.length];
+            int total = 0;
+            for(int i = 0; i < operacoes.length; i++){
+                total += pesos.get(operacoes[i]);
+                acumulado[i] = total;
+            }
+            if(total <= 0) throw new IllegalArgumentException("mix sem operações");
+        }
+
+        OperacaoCarga sortear(){
+            int valor = ThreadLocalRandom.current().nextInt(acumulado[acumulado.length - 1]);
+            for(int i = 0; i < acumulado.length; i++){
+                if(valor < acumulado[i]) return operacoes[i];
+            }
+            return operacoes[operacoes.length - 1];
+        }
+    }
+
+    static final class Alvo {
+        private final String base;
+        private final long idsLeitura;
+        private final long primeiroIdExclusao;
+        private final AtomicLong proximaExclusao;
+
+        Alvo(String base, long produtos){
+            this.base = base;
+            this.idsLeitura = Math.max(1, produtos * 9 / 10);
+            this.primeiroIdExclusao = idsLeitura + 1;
+            this.proximaExclusao = new AtomicLong(produtos);
+        }
+
+        long idLeitura(){
+            return ThreadLocalRandom.current().nextLong(1, idsLeitura + 1);
+        }
+
+        // depois de esgotar a faixa reservada repete o primeiro ID dela (responde 404, sem afetar as leituras)
+        long idExclusao(){
+            return Math.max(primeiroIdExclusao, proximaExclusao.getAndDecrement());
+        }
+
+        URI uri(String caminho){
+            return URI.create(base + caminho);
+        }
+
+        HttpRequest get(String caminho){
+            return HttpRequest.newBuilder(uri(caminho)).GET().build();
+        }
+
+        HttpRequest enviar(String metodo, String caminho, String corpo){
+            return HttpRequest.newBuilder(uri(caminho))
+                    .header("Content-Type", "application/json")
+                    .method(metodo, HttpRequest.BodyPublishers.ofString(corpo))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.apiestoque2.carga;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Latencia por operacao em HdrHistogram (microssegundos, 3 digitos significativos), medida a partir do instante em
+// que a requisicao deveria ter saido: atrasos do proprio gerador entram na medida (sem omissao coordenada)
+final class RelatorioCarga {
+    private static final long LATENCIA_MAXIMA_US = TimeUnit.MINUTES.toMicros(2);
+
+    private final Map<OperacaoCarga, Recorder> latencias = new EnumMap<>(OperacaoCarga.class);
+    private final Map<OperacaoCarga, LongAdder> erros = new EnumMap<>(OperacaoCarga.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    RelatorioCarga(){
+        for(OperacaoCarga operacao : OperacaoCarga.values()){
+            latencias.put(operacao, new Recorder(LATENCIA_MAXIMA_US, 3));
+            erros.put(operacao, new LongAdder());
+        }
+    }
+
+    // status -1: falha de conexao ou timeout. Erro e 5xx ou falha; 4xx e resposta valida da API
+    void registrar(OperacaoCarga operacao, long previstoNanos, long concluidoNanos, int status){
+        long latencia = TimeUnit.NANOSECONDS.toMicros(concluidoNanos - previstoNanos);
+        latencias.get(operacao).recordValue(Math.min(Math.max(latencia, 0), LATENCIA_MAXIMA_US));
+        if(status < 0 || status >= 500) erros.get(operacao).increment();
+    }
+
+    // fim do aquecimento
+    void descartar(){
+        latencias.values().forEach(Recorder::reset);
+        erros.values().forEach(LongAdder::reset);
+    }
+
+    // consolida o periodo medido, grava resultado.json e um .hgrm por operacao em saida
+    ObjectNode consolidar(Duration duracao, ObjectNode configuracao, Path saida) throws IOException {
+        Files.createDirectories(saida);
+        ObjectNode resultado = objectMapper.createObjectNode();
+        resultado.set("configuracao", configuracao);
+        ObjectNode operacoes = resultado.putObject("operacoes");
+        Histogram total = new Histogram(LATENCIA_MAXIMA_US, 3);
+
+        for(OperacaoCarga operacao : OperacaoCarga.values()){
+            Histogram histograma = latencias.get(operacao).getIntervalHistogram();
+            if(histograma.getTotalCount() == 0) continue;
+            total.add(histograma);
+            operacoes.set(operacao.nome(), resumir(histograma, erros.get(operacao).sum(), duracao));
+            try(PrintStream arquivo = new PrintStream(Files.newOutputStream(saida.resolve(operacao.nome() + ".hgrm")))){
+                histograma.outputPercentileDistribution(arquivo, 1000.0);
+            }
+        }
+        long totalErros = erros.values().stream().mapToLong(LongAdder::sum).sum();
+        resultado.set("total", resumir(total, totalErros, duracao));
+
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(saida.resolve("resultado.json").toFile(), resultado);
+        return resultado;
+    }
+
+    void imprimir(ObjectNode resultado, PrintStream saida){
+        saida.printf(Locale.ROOT, "%-30s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+                "operacao", "requisicoes", "erros", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Iterator<Map.Entry<String, JsonNode>> operacoes = resultado.get("operacoes").fields();
+        while(operacoes.hasNext()){
+            Map.Entry<String, JsonNode> operacao = operacoes.next();
+            imprimirLinha(saida, operacao.getKey(), operacao.getValue());
+        }
+        imprimirLinha(saida, "total", resultado.get("total"));
+    }
+
+    // operacao com p99 no baseline nao pode passar de baseline * (1 + tolerancia); a que nao tem entra nos avisos,
+    // para a falta de baseline aparecer na saida em vez de passar em branco
+    List<String> compararComBaseline(ObjectNode resultado, JsonNode baseline, double tolerancia, Consumer<String> avisos){
+        List<String> falhas = new ArrayList<>();
+        JsonNode limites = baseline.path("p99Ms");
+        Iterator<Map.Entry<String, JsonNode>> operacoes = resultado.get("operacoes").fields();
+        while(operacoes.hasNext()){
+            Map.Entry<String, JsonNode> operacao = operacoes.next();
+            JsonNode limite = limites.get(operacao.getKey());
+            // ainda nao gravado na maquina de referencia: sem o aviso, o perfil falharia sempre ate la
+            if(limite == null || limite.isNull()){
+                avisos.accept(operacao.getKey() + ": sem p99 no baseline, não verificado (grave com -Dcarga.gravarBaseline=true na máquina de referência)");
+                continue;
+            }
+            double maximo = limite.asDouble() * (1 + tolerancia);
+            double p99 = operacao.getValue().get("p99Ms").asDouble();
+            if(p99 > maximo){
+                falhas.add(String.format(Locale.ROOT, "%s: p99 %.2f ms acima do limite %.2f ms (baseline %.2f ms + %.0f%%)",
+                        operacao.getKey(), p99, maximo, limite.asDouble(), tolerancia * 100));
+            }
+        }
+        return falhas;
+    }
+
+    // p99 medido de todas as operacoes do mix, com a configuracao usada
+    ObjectNode novoBaseline(ObjectNode resultado, JsonNode baselineAtual){
+        ObjectNode novo = baselineAtual.deepCopy();
+        novo.set("configuracao", resultado.get("configuracao"));
+        ObjectNode p99 = novo.putObject("p99Ms");
+        resultado.get("operacoes").fields().forEachRemaining(operacao -> p99.put(operacao.getKey(), operacao.getValue().get("p99Ms").asDouble()));
+        return novo;
+    }
+
+    private ObjectNode resumir(Histogram histograma, long quantidadeErros, Duration duracao){
+        ObjectNode resumo = objectMapper.createObjectNode();
+        resumo.put("requisicoes", histograma.getTotalCount());
+        resumo.put("erros", quantidadeErros);
+        resumo.put("vazao", arredondar(histograma.getTotalCount() / (duracao.toMillis() / 1000.0)));
+        resumo.put("p50Ms", milissegundos(histograma.getValueAtPercentile(50)));
+        resumo.put("p90Ms", milissegundos(histograma.getValueAtPercentile(90)));
+        resumo.put("p99Ms", milissegundos(histograma.getValueAtPercentile(99)));
+        resumo.put("p999Ms", milissegundos(histograma.getValueAtPercentile(99.9)));
+        resumo.put("maxMs", milissegundos(histograma.getMaxValue()));
+        return resumo;
+    }
+
+    private static void imprimirLinha(PrintStream saida, String nome, JsonNode resumo){
+        saida.printf(Locale.ROOT, "%-30s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", nome,
+                resumo.get("requisicoes").asLong(), resumo.get("erros").asLong(), resumo.get("vazao").asDouble(),
+                resumo.get("p50Ms").asDouble(), resumo.get("p90Ms").asDouble(), resumo.get("p99Ms").asDouble(),
+                resumo.get("p999Ms").asDouble(), resumo.get("maxMs").asDouble());
+    }
+
+    private static double milissegundos(long microssegundos){
+        return arredondar(microssegundos / 1000.0);
+    }
+
+    private static double arredondar(double valor){
+        return Math.round(valor * 100) / 100.0;
+    }
+}
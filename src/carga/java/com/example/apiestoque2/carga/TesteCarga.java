@@ -0,0 +1,142 @@
+package com.example.apiestoque2.carga;
+
+import com.example.apiestoque2.ApiEstoque2Application;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+// Teste de carga de ponta a ponta (perfil Maven carga): PostgreSQL embutido com as migracoes reais, N produtos
+// gerados, a aplicacao completa numa porta aleatoria e requisicoes HTTP em taxa fixa (carga aberta: a proxima
+// requisicao sai no horario previsto mesmo que as anteriores ainda nao tenham voltado, como trafego real).
+// Sai com codigo 1 se o p99 de alguma operacao do mix regredir alem da tolerancia ou nao tiver baseline
+public final class TesteCarga {
+    private static final int CONCORRENCIA_MAXIMA = 512;
+
+    private TesteCarga(){}
+
+    public static void main(String[] args) throws Exception {
+        long produtos = Long.getLong("carga.produtos", 1_000_000);
+        int taxa = Integer.getInteger("carga.taxa", 500);
+        Duration aquecimento = Duration.ofSeconds(Integer.getInteger("carga.aquecimento-s", 20));
+        Duration duracao = Duration.ofSeconds(Integer.getInteger("carga.duracao-s", 60));
+        String mix = System.getProperty("carga.mix",
+                "selecionar=40,buscarPorNomeEPrecoMenorQue=15,buscar=10,selecionarPaginado=5,inserir=10,atualizarParcial=15,excluir=5");
+        Path arquivoBaseline = Path.of(System.getProperty("carga.baseline", "src/carga/resources/carga-baseline.json"));
+        Path saida = Path.of(System.getProperty("carga.saida", "target/carga"));
+        boolean gravarBaseline = Boolean.getBoolean("carga.gravarBaseline");
+        boolean limitador = Boolean.parseBoolean(System.getProperty("carga.limitador", "true"));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode configuracao = objectMapper.createObjectNode()
+                .put("produtos", produtos)
+                .put("taxa", taxa)
+                .put("duracaoSegundos", duracao.toSeconds())
+                .put("mix", mix)
+                .put("limitador", limitador);
+        OperacaoCarga.Sorteio sorteio = new OperacaoCarga.Sorteio(OperacaoCarga.lerMix(mix));
+        int codigoSaida = 0;
+
+        try(EmbeddedPostgres banco = EmbeddedPostgres.builder().start();
+            ConfigurableApplicationContext contexto = new SpringApplicationBuilder(ApiEstoque2Application.class)
+                    .run(argumentosAplicacao(banco, limitador))){
+            System.out.printf("Gerando %d produtos...%n", produtos);
+            GeradorProdutos.gerar(banco.getPostgresDatabase(), produtos);
+
+            String porta = contexto.getEnvironment().getProperty("local.server.port");
+            OperacaoCarga.Alvo alvo = new OperacaoCarga.Alvo("http://localhost:" + porta + "/api/produtos", produtos);
+            HttpClient cliente = HttpClient.newBuilder()
+                    .executor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), tarefa -> {
+                        Thread thread = new Thread(tarefa, "carga-http");
+                        thread.setDaemon(true);
+                        return thread;
+                    }))
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            RelatorioCarga relatorio = new RelatorioCarga();
+
+            System.out.printf("Aquecendo por %ds a %d req/s...%n", aquecimento.toSeconds(), taxa);
+            executar(cliente, alvo, sorteio, relatorio, taxa, aquecimento);
+            relatorio.descartar();
+            System.out.printf("Medindo por %ds a %d req/s...%n", duracao.toSeconds(), taxa);
+            executar(cliente, alvo, sorteio, relatorio, taxa, duracao);
+
+            ObjectNode resultado = relatorio.consolidar(duracao, configuracao, saida);
+            relatorio.imprimir(resultado, System.out);
+
+            JsonNode baseline = objectMapper.readTree(arquivoBaseline.toFile());
+            if(gravarBaseline){
+                objectMapper.writerWithDefaultPrettyPrinter().writeValue(arquivoBaseline.toFile(), relatorio.novoBaseline(resultado, baseline));
+                System.out.println("Baseline gravado em " + arquivoBaseline);
+            }else{
+                codigoSaida = verificarBaseline(relatorio, resultado, configuracao, baseline);
+            }
+        }
+        System.exit(codigoSaida);
+    }
+
+    private static int verificarBaseline(RelatorioCarga relatorio, ObjectNode resultado, ObjectNode configuracao, JsonNode baseline){
+        if(!configuracao.equals(baseline.get("configuracao"))){
+            System.out.println("Aviso: configuração diferente da usada no baseline " + baseline.get("configuracao"));
+        }
+        List<String> falhas = relatorio.compararComBaseline(resultado, baseline, baseline.get("tolerancia").asDouble(),
+                aviso -> System.out.println("Aviso: " + aviso));
+        falhas.forEach(falha -> System.out.println("FALHA " + falha));
+        return falhas.isEmpty() ? 0 : 1;
+    }
+
+    // dispara no horario previsto de cada requisicao e registra a latencia contada a partir dele
+    private static void executar(HttpClient cliente, OperacaoCarga.Alvo alvo, OperacaoCarga.Sorteio sorteio,
+                                 RelatorioCarga relatorio, int taxa, Duration duracao){
+        Semaphore vagas = new Semaphore(CONCORRENCIA_MAXIMA);
+        long intervalo = 1_000_000_000L / taxa;
+        long inicio = System.nanoTime();
+        long fim = inicio + duracao.toNanos();
+
+        for(long i = 0; ; i++){
+            long previsto = inicio + i * intervalo;
+            if(previsto >= fim) break;
+            long espera = previsto - System.nanoTime();
+            if(espera > 0) LockSupport.parkNanos(espera);
+
+            OperacaoCarga operacao = sorteio.sortear();
+            HttpRequest requisicao = operacao.requisicao(alvo);
+            vagas.acquireUninterruptibly();
+            cliente.sendAsync(requisicao, HttpResponse.BodyHandlers.discarding()).whenComplete((resposta, erro) -> {
+                vagas.release();
+                relatorio.registrar(operacao, previsto, System.nanoTime(), erro == null ? resposta.statusCode() : -1);
+            });
+        }
+        vagas.acquireUninterruptibly(CONCORRENCIA_MAXIMA);
+    }
+
+    // configuracao de producao. A cota por cliente fica desligada (ja e o padrao; explicita porque todo o trafego vem
+    // de um unico IP). O limitador de concorrencia fica ligado como em producao, entao os 503 dele contam como erro e
+    // a latencia medida inclui a espera na fila dele; -Dcarga.limitador=false mede o banco sem essa protecao
+    private static String[] argumentosAplicacao(EmbeddedPostgres banco, boolean limitador){
+        return Map.of(
+                        "spring.datasource.url", banco.getJdbcUrl("postgres", "postgres"),
+                        "spring.datasource.username", "postgres",
+                        "spring.datasource.password", "",
+                        "server.port", "0",
+                        "produtos.cota.habilitado", "false",
+                        "produtos.limitador.habilitado", String.valueOf(limitador),
+                        "logging.level.root", "WARN")
+                .entrySet().stream()
+                .map(propriedade -> "--" + propriedade.getKey() + "=" + propriedade.getValue())
+                .toArray(String[]::new);
+    }
+}
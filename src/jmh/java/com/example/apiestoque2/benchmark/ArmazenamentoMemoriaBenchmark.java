@@ -0,0 +1,62 @@
+package com.example.apiestoque2.benchmark;
+
+import com.example.apiestoque2.models.Produto;
+import com.example.apiestoque2.service.ArmazenamentoProdutosMemoria;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// mesmas operacoes do RepositorioProdutoBenchmark no armazenamento em memoria (sem journal), para comparar os dois
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArmazenamentoMemoriaBenchmark {
+    private static final int QUANTIDADE_PRODUTOS = 10_000;
+
+    private ArmazenamentoProdutosMemoria armazenamento;
+
+    @Setup(Level.Trial)
+    public void iniciar() throws IOException {
+        armazenamento = new ArmazenamentoProdutosMemoria("", 1 << 20);
+        for(int i = 1; i <= QUANTIDADE_PRODUTOS; i++){
+            armazenamento.salvar(new Produto("Produto " + i, "Descrição do produto " + i, i * 1.5, i % 100));
+        }
+    }
+
+    @Benchmark
+    public Produto buscarPorId(){
+        return armazenamento.buscarPorId(idAleatorio()).orElse(null);
+    }
+
+    @Benchmark
+    public List<Produto> buscarTodos(){
+        return armazenamento.buscarTodos();
+    }
+
+    @Benchmark
+    public List<Produto> buscarPagina(){
+        return armazenamento.buscarPagina(idAleatorio(), 100);
+    }
+
+    @Benchmark
+    public List<Produto> buscarPorNomeEPrecoMenorQue(){
+        return armazenamento.buscarPorNomeEPrecoMenorQue("%produto 9%", 5000);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean retirarEAdicionarEstoque(){
+        long id = idAleatorio();
+        return armazenamento.retirarEstoque(id, 1) && armazenamento.adicionarEstoque(id, 1);
+    }
+
+    private static long idAleatorio(){
+        return ThreadLocalRandom.current().nextLong(1, QUANTIDADE_PRODUTOS + 1);
+    }
+}
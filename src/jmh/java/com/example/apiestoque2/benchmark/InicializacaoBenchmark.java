@@ -0,0 +1,59 @@
+package com.example.apiestoque2.benchmark;
+
+import com.example.apiestoque2.ApiEstoque2Application;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// tempo ate a primeira resposta: sobe a aplicacao completa (Tomcat + PostgreSQL embutido ja migrado) numa JVM nova e
+// faz uma requisicao. Cada fork e uma medicao de JVM fria, que e o que um pod novo enfrenta; o banco sobe fora da medida
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class InicializacaoBenchmark {
+    private EmbeddedPostgres banco;
+    private ConfigurableApplicationContext contexto;
+
+    @Setup(Level.Trial)
+    public void iniciarBanco() throws IOException {
+        banco = RepositorioProdutoBenchmark.iniciarBancoMigrado();
+    }
+
+    @Benchmark
+    public int primeiraRequisicao() throws IOException, InterruptedException {
+        String[] argumentos = Stream.concat(
+                Arrays.stream(RepositorioProdutoBenchmark.argumentosBancoEmbutido(banco)),
+                Stream.of("--server.port=0")).toArray(String[]::new);
+        contexto = new SpringApplicationBuilder(ApiEstoque2Application.class).run(argumentos);
+
+        String porta = contexto.getEnvironment().getProperty("local.server.port");
+        HttpRequest requisicao = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + porta + "/api/produtos/selecionarPaginado?tamanho=1")).build();
+        HttpResponse<Void> resposta = HttpClient.newHttpClient().send(requisicao, HttpResponse.BodyHandlers.discarding());
+        if(resposta.statusCode() != 200) throw new IllegalStateException("Resposta inesperada: " + resposta.statusCode());
+        return resposta.statusCode();
+    }
+
+    @TearDown(Level.Iteration)
+    public void encerrar(){
+        if(contexto != null) contexto.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrarBanco() throws IOException {
+        banco.close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.apiestoque2.benchmark;
+
+import com.example.apiestoque2.ApiEstoque2Application;
+import com.example.apiestoque2.models.PaginaProdutos;
+import com.example.apiestoque2.models.Produto;
+import com.example.apiestoque2.repository.ProdutoRepository;
+import com.example.apiestoque2.service.ProdutoService;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// repositorio contra PostgreSQL embutido com as migracoes reais (indices de V2, triggers de revisao e eventos),
+// como o teste de carga: mede o Hibernate/Spring Data junto com o SQL que roda em producao
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositorioProdutoBenchmark {
+    private static final int QUANTIDADE_PRODUTOS = 10_000;
+
+    private EmbeddedPostgres banco;
+    private ConfigurableApplicationContext contexto;
+    private ProdutoRepository produtoRepository;
+    private ProdutoService produtoService;
+
+    @Setup(Level.Trial)
+    public void iniciar() throws IOException {
+        banco = iniciarBancoMigrado();
+        contexto = new SpringApplicationBuilder(ApiEstoque2Application.class)
+                .web(WebApplicationType.NONE)
+                .run(argumentosBancoEmbutido(banco));
+        produtoRepository = contexto.getBean(ProdutoRepository.class);
+        produtoService = contexto.getBean(ProdutoService.class);
+
+        List<Produto> produtos = new ArrayList<>(QUANTIDADE_PRODUTOS);
+        for(int i = 1; i <= QUANTIDADE_PRODUTOS; i++){
+            produtos.add(new Produto("Produto " + i, "Descrição do produto " + i, i * 1.5, i % 100));
+        }
+        produtoRepository.saveAll(produtos);
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() throws IOException {
+        contexto.close();
+        banco.close();
+    }
+
+    @Benchmark
+    public Produto findById(){
+        return produtoRepository.findById(idAleatorio()).orElse(null);
+    }
+
+    @Benchmark
+    public List<Produto> findAll(){
+        return produtoRepository.findAll();
+    }
+
+    @Benchmark
+    public PaginaProdutos buscarPagina(){
+        return produtoService.buscarPagina(idAleatorio(), 100);
+    }
+
+    @Benchmark
+    public List<Produto> findByNomeLikeIgnoreCaseAndPrecoLessThan(){
+        return produtoRepository.findByNomeLikeIgnoreCaseAndPrecoLessThan("%produto 9%", 5000);
+    }
+
+    @Benchmark
+    public Produto save(){
+        return produtoRepository.save(new Produto("Produto novo", "Descrição", 10.0, 1));
+    }
+
+    private static long idAleatorio(){
+        return ThreadLocalRandom.current().nextLong(1, QUANTIDADE_PRODUTOS + 1);
+    }
+
+    // PostgreSQL embutido ja migrado: a subida da aplicacao so valida o historico do Flyway, como a de um pod novo
+    static EmbeddedPostgres iniciarBancoMigrado() throws IOException {
+        EmbeddedPostgres banco = EmbeddedPostgres.builder().start();
+        Flyway.configure().dataSource(banco.getPostgresDatabase()).load().migrate();
+        return banco;
+    }
+
+    // argumentos de linha de comando para sobrepor o application.properties; o Flyway da aplicacao continua ligado
+    static String[] argumentosBancoEmbutido(EmbeddedPostgres banco){
+        return new String[]{
+                "--spring.datasource.url=" + banco.getJdbcUrl("postgres", "postgres"),
+                "--spring.datasource.username=postgres",
+                "--spring.datasource.password=",
+                "--produtos.eventos.habilitado=false",
+                "--logging.level.root=WARN"
+        };
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.apiestoque2.benchmark;
+
+import com.example.apiestoque2.models.Produto;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializacaoProdutoBenchmark {
+    private static final TypeReference<List<Produto>> LISTA_PRODUTOS = new TypeReference<>(){};
+
+    @Param({"1", "1000"})
+    private int quantidade;
+
+    // mesma configuracao que o Spring Boot aplica ao ObjectMapper dos controllers
+    private ObjectMapper objectMapper;
+    private Produto produto;
+    private List<Produto> produtos;
+    private byte[] produtoJson;
+    private byte[] produtosJson;
+
+    @Setup
+    public void preparar() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        produtos = new ArrayList<>(quantidade);
+        for(int i = 1; i <= quantidade; i++){
+            produtos.add(new Produto(i, "Produto " + i, "Descrição detalhada do produto " + i, i * 1.5, i % 100));
+        }
+        produto = produtos.get(0);
+        produtoJson = objectMapper.writeValueAsBytes(produto);
+        produtosJson = objectMapper.writeValueAsBytes(produtos);
+    }
+
+    @Benchmark
+    public byte[] serializarProduto() throws IOException {
+        return objectMapper.writeValueAsBytes(produto);
+    }
+
+    @Benchmark
+    public Produto desserializarProduto() throws IOException {
+        return objectMapper.readValue(produtoJson, Produto.class);
+    }
+
+    @Benchmark
+    public byte[] serializarLista() throws IOException {
+        return objectMapper.writeValueAsBytes(produtos);
+    }
+
+    @Benchmark
+    public List<Produto> desserializarLista() throws IOException {
+        return objectMapper.readValue(produtosJson, LISTA_PRODUTOS);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.apiestoque2.benchmark;
+
+import com.example.apiestoque2.models.Produto;
+import com.example.apiestoque2.service.ValidadorProduto;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Validation;
+import jakarta.validation.ValidatorFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// caminho do PATCH /atualizarParcial: copia do patch para a entidade e validacao dos campos alterados
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidacaoProdutoBenchmark {
+    private static final List<String> CAMPOS = List.of("nome", "descricao", "preco", "quantidadeEstoque");
+
+    private ValidatorFactory factory;
+    private ValidadorProduto validadorProduto;
+    private Produto produtoValido;
+    private Produto produtoInvalido;
+    private JsonNode updates;
+
+    @Setup
+    public void preparar() throws IOException {
+        factory = Validation.buildDefaultValidatorFactory();
+        validadorProduto = new ValidadorProduto(factory.getValidator());
+        produtoValido = new Produto(1, "Hamburguer de frango", "Hamburguer de frango congelado de 500g", 19.99, 50);
+        produtoInvalido = new Produto(1, "H", "Hamburguer de frango congelado de 500g", -1, -5);
+        updates = new ObjectMapper().readTree("{\"nome\": \"Hamburguer de carne\", \"preco\": 21, \"quantidadeEstoque\": 40}");
+    }
+
+    @TearDown
+    public void encerrar(){
+        factory.close();
+    }
+
+    @Benchmark
+    public Map<String, String> validarProdutoValido(){
+        return validadorProduto.validarCampos(produtoValido, CAMPOS);
+    }
+
+    @Benchmark
+    public Map<String, String> validarProdutoInvalido(){
+        return validadorProduto.validarCampos(produtoInvalido, CAMPOS);
+    }
+
+    @Benchmark
+    public List<String> aplicarAtualizacoes(){
+        Produto produto = new Produto(1, "Hamburguer de frango", null, 19.99, 50);
+        List<String> campos = new ArrayList<>(CAMPOS.size());
+        validadorProduto.aplicarAtualizacoes(produto, updates, campos);
+        return campos;
+    }
+}
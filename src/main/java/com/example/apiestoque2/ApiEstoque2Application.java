@@ -2,8 +2,10 @@ package com.example.apiestoque2;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class ApiEstoque2Application {
 
     public static void main(String[] args) {
@@ -0,0 +1,45 @@
+package com.example.apiestoque2.config;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+@Configuration
+public class ConfiguracaoInicializacao {
+    private static final String PACOTE_SPRINGDOC = "org.springdoc.";
+
+    // os beans do springdoc so sao usados no /v3/api-docs e no swagger-ui: sobem no primeiro acesso, e nao no boot.
+    // Com AOT o processador roda no build e o lazy-init fica gravado no codigo gerado
+    @Bean
+    public static BeanFactoryPostProcessor springdocSobDemanda(){
+        return beanFactory -> {
+            for(String nome : beanFactory.getBeanDefinitionNames()){
+                BeanDefinition definicao = beanFactory.getBeanDefinition(nome);
+                if(doSpringdoc(definicao, beanFactory)) definicao.setLazyInit(true);
+            }
+        };
+    }
+
+    // com AOT o inicializador do Flyway fica no codigo gerado e spring.flyway.enabled=false na execucao nao o remove:
+    // a propriedade e lida aqui, na hora de migrar. O treino do CDS no dockerfile sobe sem banco e a desliga
+    @Bean
+    public FlywayMigrationStrategy migracoesConformePropriedade(Environment ambiente){
+        return flyway -> {
+            if(ambiente.getProperty("spring.flyway.enabled", Boolean.class, true)) flyway.migrate();
+        };
+    }
+
+    private static boolean doSpringdoc(BeanDefinition definicao, ConfigurableListableBeanFactory beanFactory){
+        String classe = definicao.getBeanClassName();
+        // beans de metodos @Bean nao tem classe propria: vale a classe de configuracao que os declara
+        String fabrica = definicao.getFactoryBeanName();
+        if(classe == null && fabrica != null && beanFactory.containsBeanDefinition(fabrica)){
+            classe = beanFactory.getBeanDefinition(fabrica).getBeanClassName();
+        }
+        return classe != null && classe.startsWith(PACOTE_SPRINGDOC);
+    }
+}
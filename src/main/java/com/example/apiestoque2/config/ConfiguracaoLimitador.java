@@ -0,0 +1,47 @@
+package com.example.apiestoque2.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "produtos.limitador.habilitado", havingValue = "true", matchIfMissing = true)
+public class ConfiguracaoLimitador {
+
+    // static: BeanPostProcessor precisa existir antes dos demais beans
+    @Bean
+    public static BeanPostProcessor limitadorDataSourcePostProcessor(Environment environment){
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                // com replicas (ConfiguracaoReplicas) so o pool do primario fica atras do limitador
+                boolean dataSourcePrincipal = "dataSource".equals(beanName) || "dataSourcePrimario".equals(beanName);
+                if(!dataSourcePrincipal || !(bean instanceof HikariDataSource hikari)) return bean;
+                return new LimitadorDataSource(hikari, criarLimitador(environment, hikari));
+            }
+        };
+    }
+
+    private static LimitadorConcorrencia criarLimitador(Environment environment, HikariDataSource hikari){
+        Binder binder = Binder.get(environment);
+        int tamanhoPool = hikari.getMaximumPoolSize();
+        return new LimitadorConcorrencia(
+                tamanhoPool,
+                binder.bind("produtos.limitador.limite-maximo", Integer.class).orElse(tamanhoPool * 2),
+                binder.bind("produtos.limitador.espera-maxima-ms", Long.class).orElse(2000L),
+                binder.bind("produtos.limitador.fila-maxima", Integer.class).orElse(200),
+                binder.bind("produtos.limitador.espera-pool-tolerada-ms", Long.class).orElse(5L),
+                () -> {
+                    // o pool so existe depois da primeira conexao
+                    HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+                    return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+                });
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.apiestoque2.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+@Configuration(proxyBeanMethods = false)
+public class ConfiguracaoMetricas {
+
+    // habilita @Timed nos services
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry){
+        return new TimedAspect(registry);
+    }
+
+    @Bean
+    public MeterBinder metricasLimitador(ObjectProvider<DataSource> dataSources){
+        return registry -> dataSources.orderedStream()
+                .filter(LimitadorDataSource.class::isInstance)
+                .findFirst()
+                .ifPresent(dataSource -> registrarLimitador(registry, ((LimitadorDataSource) dataSource).getLimitador()));
+    }
+
+    private static void registrarLimitador(MeterRegistry registry, LimitadorConcorrencia limitador){
+        Gauge.builder("produto.limitador.limite", limitador, LimitadorConcorrencia::getLimite)
+                .description("Limite atual de conexões simultâneas")
+                .register(registry);
+        Gauge.builder("produto.limitador.em.uso", limitador, LimitadorConcorrencia::getEmUso)
+                .register(registry);
+        Gauge.builder("produto.limitador.fila", limitador, LimitadorConcorrencia::getNaFila)
+                .register(registry);
+        FunctionCounter.builder("produto.limitador.rejeitadas", limitador, LimitadorConcorrencia::getRejeitadas)
+                .description("Requisições rejeitadas por sobrecarga")
+                .register(registry);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.apiestoque2.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Ativada com produtos.replicas.urls (lista separada por virgula); sem ela o DataSource padrao do Boot e usado
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "produtos.replicas.urls")
+public class ConfiguracaoReplicas {
+
+    @Bean
+    public DataSource dataSourcePrimario(DataSourceProperties properties, Environment environment){
+        HikariDataSource primario = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primario));
+        primario.setPoolName("primario");
+        return primario;
+    }
+
+    @Bean
+    public RoteadorDataSource roteadorDataSource(@Qualifier("dataSourcePrimario") DataSource primario,
+                                                 DataSourceProperties properties, Environment environment){
+        Binder binder = Binder.get(environment);
+        List<String> urls = binder.bind("produtos.replicas.urls", Bindable.listOf(String.class)).get();
+        int tamanhoPool = binder.bind("produtos.replicas.tamanho-pool", Integer.class)
+                .orElse(binder.bind("spring.datasource.hikari.maximum-pool-size", Integer.class).orElse(10));
+
+        List<DataSource> replicas = new ArrayList<>();
+        for(int i = 0; i < urls.size(); i++){
+            HikariDataSource replica = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(urls.get(i).trim())
+                    .username(properties.determineUsername())
+                    .password(properties.determinePassword())
+                    .build();
+            replica.setPoolName("replica-" + (i + 1));
+            replica.setMaximumPoolSize(tamanhoPool);
+            replica.setReadOnly(true);
+            replicas.add(replica);
+        }
+
+        return new RoteadorDataSource(primario, replicas,
+                binder.bind("produtos.replicas.janela-leitura-pos-escrita", Duration.class).orElse(Duration.ofSeconds(5)),
+                binder.bind("produtos.replicas.consulta-atraso", String.class).orElse(
+                        "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+                        "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END"),
+                binder.bind("produtos.replicas.atraso-maximo-segundos", Double.class).orElse(2.0));
+    }
+
+    // a conexao real so e pedida no primeiro comando, quando o readOnly da transacao ja foi definido
+    @Bean
+    @Primary
+    public DataSource dataSource(RoteadorDataSource roteadorDataSource){
+        return new LazyConnectionDataSourceProxy(roteadorDataSource);
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.apiestoque2.config;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+// Conta os comandos SQL que o Hibernate prepara na thread da requisicao (N+1, buscas duplicadas).
+// Registrado em spring.jpa.properties.hibernate.session_factory.statement_inspector
+public class ContadorComandosSql implements StatementInspector {
+    private static final ThreadLocal<int[]> CONTADOR = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        CONTADOR.get()[0]++;
+        return sql;
+    }
+
+    public static void zerar(){
+        CONTADOR.get()[0] = 0;
+    }
+
+    public static int total(){
+        return CONTADOR.get()[0];
+    }
+}
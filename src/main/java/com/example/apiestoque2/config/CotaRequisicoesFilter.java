@@ -0,0 +1,141 @@
+package com.example.apiestoque2.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// Cota por cliente, com orcamentos separados para leitura e escrita. O cliente e a X-API-Key quando ela esta em
+// produtos.cota.chaves; qualquer outra chave e ignorada (uma chave inventada por requisicao nao abre balde novo)
+// e o cliente passa a ser o IP. Atras de proxy ou gateway o IP so e o do cliente com server.forward-headers-strategy
+// configurado; sem isso todo o trafego cai no balde do proxy, por isso a cota vem desligada.
+// Cada balde e um unico AtomicLong (GCRA: instante teorico da proxima chegada), atualizado por CAS, sem lock.
+// Os baldes ficam na memoria deste no: com varias instancias, cada uma aplica a cota inteira
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@ConditionalOnProperty(name = "produtos.cota.habilitado", havingValue = "true")
+public class CotaRequisicoesFilter extends OncePerRequestFilter {
+    public static final String CABECALHO_CHAVE = "X-API-Key";
+    private static final byte[] CORPO_REJEICAO = "{\"geral\":\"Limite de requisições excedido, tente novamente mais tarde\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final Cota leitura;
+    private final Cota escrita;
+    private final Set<String> chavesConhecidas;
+    // clientes sem requisicoes ha 10 minutos saem do mapa; o tamanho maximo protege contra chaves inventadas
+    private final Cache<String, AtomicLong> baldes;
+
+    public CotaRequisicoesFilter(MeterRegistry registry,
+                                 @Value("${produtos.cota.leitura.por-segundo:200}") double leituraPorSegundo,
+                                 @Value("${produtos.cota.leitura.rajada:400}") int leituraRajada,
+                                 @Value("${produtos.cota.escrita.por-segundo:20}") double escritaPorSegundo,
+                                 @Value("${produtos.cota.escrita.rajada:40}") int escritaRajada,
+                                 @Value("${produtos.cota.clientes-maximo:100000}") long clientesMaximo,
+                                 @Value("${produtos.cota.chaves:}") Set<String> chavesConhecidas){
+        this.leitura = new Cota("leitura", leituraPorSegundo, leituraRajada, registry);
+        this.escrita = new Cota("escrita", escritaPorSegundo, escritaRajada, registry);
+        this.chavesConhecidas = chavesConhecidas.stream().map(String::trim).filter(chave -> !chave.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.baldes = Caffeine.newBuilder()
+                .maximumSize(clientesMaximo)
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+        Gauge.builder("produto.cota.clientes", baldes, Cache::estimatedSize)
+                .description("Baldes de cota em memória")
+                .register(registry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String metodo = request.getMethod();
+        Cota cota = "GET".equals(metodo) || "HEAD".equals(metodo) || "OPTIONS".equals(metodo) ? leitura : escrita;
+
+        String chave = request.getHeader(CABECALHO_CHAVE);
+        // getRemoteAddr ja vem do X-Forwarded-For/Forwarded quando server.forward-headers-strategy esta configurado
+        String cliente = chave != null && chavesConhecidas.contains(chave)
+                ? cota.nome + ":chave:" + chave
+                : cota.nome + ":ip:" + request.getRemoteAddr();
+        long esperaNanos = cota.consumir(baldes.get(cliente, c -> new AtomicLong()), System.nanoTime());
+        if(esperaNanos == 0){
+            chain.doFilter(request, response);
+            return;
+        }
+
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(esperaNanos + 999_999_999L))));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getOutputStream().write(CORPO_REJEICAO);
+    }
+
+    private static class Cota {
+        private final String nome;
+        // intervalo entre requisicoes na taxa sustentada e quanto o cliente pode se adiantar (rajada)
+        private final long intervaloNanos;
+        private final long toleranciaNanos;
+        private final Counter permitidas;
+        private final Counter rejeitadas;
+
+        private Cota(String nome, double porSegundo, int rajada, MeterRegistry registry){
+            this.nome = nome;
+            this.intervaloNanos = (long) (TimeUnit.SECONDS.toNanos(1) / porSegundo);
+            this.toleranciaNanos = intervaloNanos * Math.max(0, rajada - 1);
+            this.permitidas = contador(registry, nome, "permitida");
+            this.rejeitadas = contador(registry, nome, "rejeitada");
+        }
+
+        private static Counter contador(MeterRegistry registry, String cota, String resultado){
+            return Counter.builder("produto.cota.decisoes")
+                    .description("Decisões do limitador de requisições por cliente")
+                    .tag("cota", cota)
+                    .tag("resultado", resultado)
+                    .register(registry);
+        }
+
+        // 0 quando a requisicao passa; senao, quanto tempo falta para caber na cota
+        private long consumir(AtomicLong balde, long agora){
+            while(true){
+                long proximaChegada = balde.get();
+                // balde novo (0) ou parado: comeca cheio
+                long base = proximaChegada == 0 || proximaChegada - agora < 0 ? agora : proximaChegada;
+                long adiantamento = base - agora;
+                if(adiantamento > toleranciaNanos){
+                    rejeitadas.increment();
+                    return adiantamento - toleranciaNanos;
+                }
+                if(balde.compareAndSet(proximaChegada, base + intervaloNanos)){
+                    permitidas.increment();
+                    return 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.apiestoque2.config;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+// Limite de concorrencia adaptativo (AIMD): cresce 1/limite a cada uso sem congestionamento
+// e cai 10% quando a espera pela conexao no pool passa da tolerada ou quando ha threads
+// esperando conexao no pool. O sinal e a espera no pool, e nao o tempo com a conexao: uma
+// exportacao, uma carga em lote ou a reconciliacao seguram a conexao por minutos sem que o
+// banco esteja congestionado. Acima do limite as chamadas esperam numa fila curta e, se a
+// fila estiver cheia ou a espera estourar, sao rejeitadas com SobrecargaException.
+public class LimitadorConcorrencia {
+    private static final double FATOR_REDUCAO = 0.9;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition liberado = lock.newCondition();
+    private final IntSupplier esperandoNoPool;
+    private final double limiteMinimo;
+    private final double limiteMaximo;
+    private final long esperaMaximaNanos;
+    private final int filaMaxima;
+    private final long esperaPoolToleradaNanos;
+
+    private double limite;
+    private int emUso;
+    private int naFila;
+    private long rejeitadas;
+
+    public LimitadorConcorrencia(int limiteInicial, int limiteMaximo, long esperaMaximaMs, int filaMaxima,
+                                 long esperaPoolToleradaMs, IntSupplier esperandoNoPool){
+        this.limite = limiteInicial;
+        this.limiteMinimo = 1;
+        this.limiteMaximo = limiteMaximo;
+        this.esperaMaximaNanos = TimeUnit.MILLISECONDS.toNanos(esperaMaximaMs);
+        this.filaMaxima = filaMaxima;
+        this.esperaPoolToleradaNanos = TimeUnit.MILLISECONDS.toNanos(esperaPoolToleradaMs);
+        this.esperandoNoPool = esperandoNoPool;
+    }
+
+    public void adquirir(){
+        lock.lock();
+        try{
+            if(emUso < (int) limite){
+                emUso++;
+                return;
+            }
+            if(naFila >= filaMaxima) throw rejeitar("fila do limitador cheia");
+
+            naFila++;
+            try{
+                long restante = esperaMaximaNanos;
+                while(emUso >= (int) limite){
+                    if(restante <= 0) throw rejeitar("tempo de espera do limitador esgotado");
+                    restante = liberado.awaitNanos(restante);
+                }
+                emUso++;
+            }catch(InterruptedException ie){
+                Thread.currentThread().interrupt();
+                throw rejeitar("espera interrompida");
+            }finally{
+                naFila--;
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    // esperaPoolNanos: quanto a chamada esperou pela conexao fisica depois de passar pelo limitador
+    public void liberar(long esperaPoolNanos){
+        boolean congestionado = esperandoNoPool.getAsInt() > 0 || esperaPoolNanos > esperaPoolToleradaNanos;
+        lock.lock();
+        try{
+            boolean limiteEmUso = emUso >= (int) limite;
+            emUso--;
+
+            if(congestionado){
+                limite = Math.max(limiteMinimo, limite * FATOR_REDUCAO);
+            }else if(limiteEmUso){
+                // so cresce quando o limite atual foi de fato atingido
+                limite = Math.min(limiteMaximo, limite + 1 / limite);
+            }
+            liberado.signalAll();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private SobrecargaException rejeitar(String motivo){
+        rejeitadas++;
+        return new SobrecargaException("Banco de dados sobrecarregado: " + motivo);
+    }
+
+    public double getLimite(){
+        lock.lock();
+        try{
+            return limite;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public int getEmUso(){
+        lock.lock();
+        try{
+            return emUso;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public int getNaFila(){
+        lock.lock();
+        try{
+            return naFila;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public long getRejeitadas(){
+        lock.lock();
+        try{
+            return rejeitadas;
+        }finally{
+            lock.unlock();
+        }
+    }
+}
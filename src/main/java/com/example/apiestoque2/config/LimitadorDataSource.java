@@ -0,0 +1,78 @@
+package com.example.apiestoque2.config;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Passa cada conexao pelo limitador: a permissao e pega no getConnection e devolvida no close,
+// entao JPA, JdbcTemplate e streams ficam todos atras do mesmo limite. O limitador recebe so o
+// tempo de espera no pool, medido aqui; o tempo de uso da conexao depende do endpoint
+public class LimitadorDataSource extends DelegatingDataSource {
+    private final LimitadorConcorrencia limitador;
+
+    public LimitadorDataSource(DataSource dataSource, LimitadorConcorrencia limitador){
+        super(dataSource);
+        this.limitador = limitador;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        limitador.adquirir();
+        return obterConexao(() -> super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        limitador.adquirir();
+        return obterConexao(() -> super.getConnection(username, password));
+    }
+
+    public LimitadorConcorrencia getLimitador(){
+        return limitador;
+    }
+
+    private Connection obterConexao(Conexao conexao) throws SQLException {
+        long inicio = System.nanoTime();
+        Connection alvo;
+        try{
+            alvo = conexao.obter();
+        }catch(SQLException | RuntimeException erro){
+            limitador.liberar(System.nanoTime() - inicio);
+            throw erro;
+        }
+        long esperaPool = System.nanoTime() - inicio;
+
+        AtomicBoolean fechada = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, metodo, argumentos) -> {
+                    if(metodo.getName().equals("close") && fechada.compareAndSet(false, true)){
+                        try{
+                            alvo.close();
+                        }finally{
+                            limitador.liberar(esperaPool);
+                        }
+                        return null;
+                    }
+                    switch(metodo.getName()){
+                        case "equals": return proxy == argumentos[0];
+                        case "hashCode": return System.identityHashCode(proxy);
+                        case "unwrap": if(((Class<?>) argumentos[0]).isInstance(proxy)) return proxy;
+                    }
+                    try{
+                        return metodo.invoke(alvo, argumentos);
+                    }catch(InvocationTargetException ite){
+                        throw ite.getTargetException();
+                    }
+                });
+    }
+
+    @FunctionalInterface
+    private interface Conexao {
+        Connection obter() throws SQLException;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.apiestoque2.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+// registra quantos comandos SQL cada endpoint executou, por padrao de URI
+@Component
+public class MetricasRequisicaoFilter extends OncePerRequestFilter {
+    private final MeterRegistry registry;
+
+    public MetricasRequisicaoFilter(MeterRegistry registry){
+        this.registry = registry;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        ContadorComandosSql.zerar();
+        try{
+            chain.doFilter(request, response);
+        }finally{
+            Object uri = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            DistributionSummary.builder("produto.requisicao.comandos.sql")
+                    .description("Comandos SQL preparados pelo Hibernate por requisição")
+                    .tag("method", request.getMethod())
+                    .tag("uri", uri == null ? "UNKNOWN" : uri.toString())
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(ContadorComandosSql.total());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.apiestoque2.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Transacoes readOnly vao para uma replica saudavel (round-robin); o resto vai para o primario.
+// Um cliente que acabou de escrever le do primario durante a janela configurada (read-your-writes).
+// Precisa estar atras de um LazyConnectionDataSourceProxy para o readOnly ja estar definido na escolha.
+public class RoteadorDataSource extends AbstractRoutingDataSource {
+    public static final String CABECALHO_CLIENTE = "X-Cliente-Id";
+    private static final String PRIMARIO = "primario";
+    private static final Logger log = LoggerFactory.getLogger(RoteadorDataSource.class);
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final Cache<String, Boolean> escritasRecentes;
+    private final AtomicInteger proxima = new AtomicInteger();
+    private final String consultaAtraso;
+    private final double atrasoMaximoSegundos;
+
+    public RoteadorDataSource(DataSource primario, List<DataSource> replicas, Duration janelaLeituraPosEscrita,
+                              String consultaAtraso, double atrasoMaximoSegundos){
+        this.escritasRecentes = Caffeine.newBuilder().expireAfterWrite(janelaLeituraPosEscrita).build();
+        this.consultaAtraso = consultaAtraso;
+        this.atrasoMaximoSegundos = atrasoMaximoSegundos;
+
+        Map<Object, Object> alvos = new HashMap<>();
+        alvos.put(PRIMARIO, primario);
+        for(int i = 0; i < replicas.size(); i++){
+            Replica replica = new Replica("replica-" + (i + 1), replicas.get(i));
+            alvos.put(replica.chave, replica.dataSource);
+            this.replicas.add(replica);
+        }
+        setTargetDataSources(alvos);
+        setDefaultTargetDataSource(primario);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String cliente = clienteAtual();
+        if(!TransactionSynchronizationManager.isCurrentTransactionReadOnly()){
+            if(cliente != null && TransactionSynchronizationManager.isActualTransactionActive()){
+                escritasRecentes.put(cliente, Boolean.TRUE);
+            }
+            return PRIMARIO;
+        }
+        if(replicas.isEmpty() || (cliente != null && escritasRecentes.getIfPresent(cliente) != null)) return PRIMARIO;
+
+        int inicio = Math.floorMod(proxima.getAndIncrement(), replicas.size());
+        for(int i = 0; i < replicas.size(); i++){
+            Replica replica = replicas.get((inicio + i) % replicas.size());
+            if(replica.saudavel) return replica.chave;
+        }
+        return PRIMARIO;
+    }
+
+    // replica fora do ar ou atrasada demais deixa de receber leituras ate a proxima verificacao
+    @Scheduled(fixedDelayString = "${produtos.replicas.intervalo-verificacao-ms:5000}")
+    public void verificarReplicas(){
+        for(Replica replica : replicas){
+            boolean saudavel;
+            try(Connection conexao = replica.dataSource.getConnection();
+                Statement comando = conexao.createStatement();
+                ResultSet resultado = comando.executeQuery(consultaAtraso)){
+                saudavel = resultado.next() && resultado.getDouble(1) <= atrasoMaximoSegundos;
+            }catch(SQLException erro){
+                log.warn("Falha ao verificar {}: {}", replica.chave, erro.getMessage());
+                saudavel = false;
+            }
+            if(saudavel != replica.saudavel) log.info("{} {}", replica.chave, saudavel ? "disponível para leitura" : "fora do roteamento");
+            replica.saudavel = saudavel;
+        }
+    }
+
+    // chamado pelo Spring ao destruir o bean: os pools das replicas nao sao beans
+    public void close(){
+        for(Replica replica : replicas){
+            if(replica.dataSource instanceof AutoCloseable pool){
+                try{
+                    pool.close();
+                }catch(Exception erro){
+                    log.warn("Falha ao fechar {}: {}", replica.chave, erro.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String clienteAtual(){
+        RequestAttributes atributos = RequestContextHolder.getRequestAttributes();
+        if(!(atributos instanceof ServletRequestAttributes servlet)) return null;
+
+        HttpServletRequest request = servlet.getRequest();
+        String cliente = request.getHeader(CABECALHO_CLIENTE);
+        return cliente != null ? cliente : request.getRemoteAddr();
+    }
+
+    private static class Replica {
+        private final String chave;
+        private final DataSource dataSource;
+        private volatile boolean saudavel;
+
+        private Replica(String chave, DataSource dataSource){
+            this.chave = chave;
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.apiestoque2.config;
+
+public class SobrecargaException extends RuntimeException {
+    public SobrecargaException(String mensagem){
+        super(mensagem);
+    }
+
+    // o Spring costuma embrulhar a falha ao obter conexao (CannotCreateTransactionException etc.)
+    public static boolean isSobrecarga(Throwable erro){
+        for(Throwable atual = erro; atual != null; atual = atual.getCause()){
+            if(atual instanceof SobrecargaException) return true;
+        }
+        return false;
+    }
+}
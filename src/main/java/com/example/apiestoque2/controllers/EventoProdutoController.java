@@ -0,0 +1,40 @@
+package com.example.apiestoque2.controllers;
+
+import com.example.apiestoque2.models.EventoProduto;
+import com.example.apiestoque2.service.ConsumidorEventosSse;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/api/produtos")
+public class EventoProdutoController {
+    private final ConsumidorEventosSse consumidorEventosSse;
+
+    public EventoProdutoController(ConsumidorEventosSse consumidorEventosSse){
+        this.consumidorEventosSse = consumidorEventosSse;
+    }
+
+    @GetMapping(value = "/eventos", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Acompanha as alterações de produtos",
+            description = "Mantém a conexão aberta e envia um evento Server-Sent Events para cada produto criado, " +
+                    "atualizado ou excluído a partir da conexão")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Conexão aberta",
+                    content = @Content(mediaType = "text/event-stream",
+                            schema = @Schema(implementation = EventoProduto.class)
+                    )
+            )
+    })
+    public SseEmitter acompanharEventos(){
+        return consumidorEventosSse.conectar();
+    }
+}
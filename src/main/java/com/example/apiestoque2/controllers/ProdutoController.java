@@ -1,32 +1,94 @@
 package com.example.apiestoque2.controllers;
 
+import com.example.apiestoque2.config.SobrecargaException;
+import com.example.apiestoque2.models.AgregadosEstoque;
+import com.example.apiestoque2.models.AlteracoesProdutos;
+import com.example.apiestoque2.models.ItemReserva;
+import com.example.apiestoque2.models.PaginaCamposProdutos;
+import com.example.apiestoque2.models.PaginaProdutos;
 import com.example.apiestoque2.models.Produto;
+import com.example.apiestoque2.models.ProdutosEncontrados;
+import com.example.apiestoque2.models.ResultadoExclusao;
+import com.example.apiestoque2.models.ResultadoCarga;
+import com.example.apiestoque2.service.AgregacaoEstoque;
+import com.example.apiestoque2.service.ArmazenamentoProdutos;
+import com.example.apiestoque2.service.EstoqueInsuficienteException;
+import com.example.apiestoque2.service.EstoqueWriteBehind;
+import com.example.apiestoque2.service.ProdutoCargaService;
 import com.example.apiestoque2.service.ProdutoService;
+import com.example.apiestoque2.service.ValidadorProduto;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import jakarta.validation.*;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 @RestController
 @RequestMapping("/api/produtos")
 public class ProdutoController {
+    public static final int TAMANHO_MAXIMO_PAGINA = 1000;
+    public static final int TAMANHO_MAXIMO_LOTE_IDS = 10000;
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    public static final MediaType APPLICATION_CBOR = MediaType.parseMediaType("application/cbor");
+    public static final MediaType APPLICATION_SMILE = MediaType.parseMediaType("application/x-jackson-smile");
     private final ProdutoService produtoService;
+    private final ObjectProvider<ProdutoCargaService> produtoCargaService;
+    private final ValidadorProduto validadorProduto;
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper mapperCbor;
+    private final ObjectMapper mapperSmile;
+    private final ObjectProvider<EstoqueWriteBehind> estoqueWriteBehind;
+    private final AgregacaoEstoque agregacaoEstoque;
     
-    public ProdutoController(ProdutoService produtoService){
+    public ProdutoController(ProdutoService produtoService, ObjectProvider<ProdutoCargaService> produtoCargaService,
+                             ValidadorProduto validadorProduto, ObjectMapper objectMapper,
+                             MappingJackson2CborHttpMessageConverter conversorCbor,
+                             MappingJackson2SmileHttpMessageConverter conversorSmile,
+                             ObjectProvider<EstoqueWriteBehind> estoqueWriteBehind,
+                             AgregacaoEstoque agregacaoEstoque){
         this.produtoService = produtoService;
+        this.produtoCargaService = produtoCargaService;
+        this.validadorProduto = validadorProduto;
+        this.objectMapper = objectMapper;
+        this.mapperCbor = conversorCbor.getObjectMapper();
+        this.mapperSmile = conversorSmile.getObjectMapper();
+        this.estoqueWriteBehind = estoqueWriteBehind;
+        this.agregacaoEstoque = agregacaoEstoque;
     }
     
     @GetMapping("/selecionar")
     @Operation(summary = "Lista todos os produtos",
-            description = "Retorna uma lista de todos od produtos disponíveis")
+            description = "Retorna uma lista de todos od produtos disponíveis. Com If-None-Match igual ao ETag da última " +
+                    "resposta, retorna 304 se o catálogo não mudou. Com fields (ex.: fields=id,nome,preco) cada produto " +
+                    "vem somente com os campos pedidos")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200",
                     description = "Lista de produtos retornada com sucesso",
@@ -35,6 +97,11 @@ public class ProdutoController {
                     )
             ),
 
+            @ApiResponse(responseCode = "304",
+                    description = "Catálogo não mudou desde o ETag informado",
+                    content = @Content
+            ),
+
             @ApiResponse(responseCode = "500",
                     description = "Erro interno do servidor",
                     content = @Content
@@ -54,8 +121,223 @@ public class ProdutoController {
                     )
             )
     })
-    public List<Produto> listarProdutos(){
-        return produtoService.buscarTodos();
+    public ResponseEntity<List<?>> listarProdutos(@RequestParam(required = false) String fields, WebRequest request){
+        List<String> campos;
+        try{
+            campos = produtoService.lerCampos(fields);
+        }catch(IllegalArgumentException iae){
+            return ResponseEntity.badRequest().build();
+        }
+
+        // cada selecao de campos e uma representacao diferente, com ETag proprio. Fraco (W/): o Tomcat nao comprime
+        // respostas com ETag forte, e a versao gzip nao e identica byte a byte a original. Versao e corpo saem da
+        // mesma leitura do armazenamento, para o ETag nao descrever outro estado do catalogo
+        return produtoService.lerComVersaoCatalogo(versao -> {
+            String etag = "W/\"catalogo-" + versao + (campos == null ? "" : "-" + String.join(",", campos)) + "\"";
+            if(request.checkNotModified(etag)) return null;
+            List<?> produtos = campos == null ? produtoService.buscarTodos() : produtoService.buscarTodosCampos(campos);
+            return ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).body(produtos);
+        });
+    }
+
+    @GetMapping("/selecionar/{id}")
+    @Operation(summary = "Busca produto por ID",
+            description = "Retorna o produto com ETag da sua revisão; com If-None-Match igual ao ETag, retorna 304 se ele não mudou")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Produto encontrado",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = Produto.class)
+                    )
+            ),
+
+            @ApiResponse(responseCode = "304",
+                    description = "Produto não mudou desde o ETag informado",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "404",
+                    description = "Produto não encontrado",
+                    content = @Content
+            )
+    })
+    public ResponseEntity<Produto> buscarProduto(@PathVariable Long id, WebRequest request){
+        if(isNotIdFine(id)) return ResponseEntity.badRequest().build();
+
+        Produto produto;
+        try{
+            produto = produtoService.buscarProduto(id);
+        }catch(RuntimeException re){
+            if(SobrecargaException.isSobrecarga(re)) throw re;
+            return ResponseEntity.notFound().build();
+        }
+
+        String etag = "W/\"" + produto.getId() + "-" + produto.getRevisao() + "\"";
+        if(request.checkNotModified(etag)) return null;
+        return ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).body(produto);
+    }
+
+    @RequestMapping(value = "/selecionarPorIds", method = {RequestMethod.GET, RequestMethod.POST})
+    @Operation(summary = "Busca vários produtos por ID",
+            description = "Retorna os produtos dos IDs informados e os IDs que não existem. Os IDs vão em ids (GET) ou como " +
+                    "um array JSON no corpo (POST, para listas longas). Produtos fora do cache são buscados em blocos, um único " +
+                    "comando IN por bloco")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Produtos retornados com sucesso",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ProdutosEncontrados.class)
+                    )
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "Lista vazia, grande demais ou com ID zero ou negativo",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    public ResponseEntity<?> buscarPorIds(@RequestParam(required = false) List<Long> ids,
+                                          @RequestBody(required = false) List<Long> corpo){
+        List<Long> pedidos = ids != null ? ids : corpo;
+        ResponseEntity<Map<String, String>> erros = generateResponseErrorIds(pedidos);
+        if(erros != null) return erros;
+        return ResponseEntity.ok(produtoService.buscarPorIds(pedidos));
+    }
+
+    @GetMapping("/alteracoes")
+    @Operation(summary = "Lista as alterações desde uma revisão",
+            description = "Retorna os produtos alterados e os IDs excluídos depois da posição informada, para sincronização " +
+                    "incremental. Envie a revisão retornada no parâmetro desde da próxima consulta. Só entram alterações " +
+                    "de transações já terminadas, e uma transação nunca é dividida entre páginas (a página pode passar de tamanho)")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Alterações retornadas com sucesso",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = AlteracoesProdutos.class)
+                    )
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "Revisão negativa ou tamanho fora do intervalo permitido",
+                    content = @Content
+            )
+    })
+    public ResponseEntity<AlteracoesProdutos> listarAlteracoes(@RequestParam(defaultValue = "0") long desde,
+                                                               @RequestParam(defaultValue = "1000") int tamanho){
+        if(desde < 0 || tamanho <= 0 || tamanho > TAMANHO_MAXIMO_PAGINA) return ResponseEntity.badRequest().build();
+        return ResponseEntity.ok(produtoService.buscarAlteracoes(desde, tamanho));
+    }
+
+    @GetMapping("/selecionarPaginado")
+    @Operation(summary = "Lista os produtos em páginas",
+            description = "Retorna os produtos com ID maior que o cursor, ordenados por ID, e o cursor da próxima página. " +
+                    "Com fields cada produto vem somente com os campos pedidos e o ID")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Página de produtos retornada com sucesso",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(oneOf = {PaginaProdutos.class, PaginaCamposProdutos.class})
+                    )
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "Cursor negativo ou tamanho fora do intervalo permitido",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "500",
+                    description = "Erro interno do servidor",
+                    content = @Content
+            )
+    })
+    public ResponseEntity<?> listarProdutosPaginado(@RequestParam(defaultValue = "0") long cursor,
+                                                    @RequestParam(defaultValue = "100") int tamanho,
+                                                    @RequestParam(required = false) String fields){
+        if(cursor < 0 || tamanho <= 0 || tamanho > TAMANHO_MAXIMO_PAGINA) return ResponseEntity.badRequest().build();
+
+        List<String> campos;
+        try{
+            campos = produtoService.lerCampos(fields);
+        }catch(IllegalArgumentException iae){
+            return ResponseEntity.badRequest().build();
+        }
+        if(campos == null) return ResponseEntity.ok(produtoService.buscarPagina(cursor, tamanho));
+        return ResponseEntity.ok(produtoService.buscarPaginaCampos(campos, cursor, tamanho));
+    }
+
+    @GetMapping(value = "/exportar", produces = {"application/x-ndjson", "application/json", "application/cbor", "application/x-jackson-smile"})
+    @Operation(summary = "Exporta todos os produtos",
+            description = "Envia todos os produtos ordenados por ID sem carregar a tabela inteira em memória: um JSON por linha " +
+                    "(padrão) ou, conforme o Accept, um único array em JSON, CBOR ou Smile escrito direto na resposta")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Produtos exportados com sucesso",
+                    content = {
+                            @Content(mediaType = "application/x-ndjson", schema = @Schema(implementation = Produto.class)),
+                            @Content(mediaType = "application/json", schema = @Schema(implementation = Produto.class)),
+                            @Content(mediaType = "application/cbor", schema = @Schema(implementation = Produto.class)),
+                            @Content(mediaType = "application/x-jackson-smile", schema = @Schema(implementation = Produto.class))
+                    }
+            ),
+
+            @ApiResponse(responseCode = "500",
+                    description = "Erro interno do servidor",
+                    content = @Content
+            )
+    })
+    public ResponseEntity<StreamingResponseBody> exportarProdutos(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept){
+        MediaType formato = formatoExportacao(accept);
+        StreamingResponseBody corpo;
+        if(formato.equals(APPLICATION_NDJSON)){
+            corpo = saida -> {
+                // sem flush a cada produto: o buffer da resposta decide quando enviar
+                try(SequenceWriter escritor = objectMapper.writerFor(Produto.class)
+                        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                        .withRootValueSeparator("\n")
+                        .writeValues(saida)){
+                    produtoService.exportarTodos(produto -> {
+                        try{
+                            escritor.write(produto);
+                        }catch(IOException ioe){
+                            throw new UncheckedIOException(ioe);
+                        }
+                    });
+                }
+            };
+        }else{
+            ObjectMapper mapper = formato.equals(APPLICATION_CBOR) ? mapperCbor
+                    : formato.equals(APPLICATION_SMILE) ? mapperSmile : objectMapper;
+            corpo = saida -> escreverArray(mapper, saida);
+        }
+        return ResponseEntity.ok().contentType(formato).body(corpo);
+    }
+
+    // array escrito produto a produto no gerador do formato, sem montar a lista nem um byte[] intermediario
+    private void escreverArray(ObjectMapper mapper, OutputStream saida) throws IOException {
+        ObjectWriter escritor = mapper.writerFor(Produto.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try(JsonGenerator gerador = mapper.getFactory().createGenerator(saida)){
+            gerador.writeStartArray();
+            produtoService.exportarTodos(produto -> {
+                try{
+                    escritor.writeValue(gerador, produto);
+                }catch(IOException ioe){
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+            gerador.writeEndArray();
+        }
+    }
+
+    // primeiro formato aceito pelo cliente entre os suportados; sem Accept, NDJSON
+    private static MediaType formatoExportacao(String accept){
+        if(accept == null || accept.isBlank()) return APPLICATION_NDJSON;
+        List<MediaType> aceitos = MediaType.parseMediaTypes(accept);
+        MimeTypeUtils.sortBySpecificity(aceitos);
+        for(MediaType aceito : aceitos){
+            for(MediaType formato : List.of(APPLICATION_NDJSON, MediaType.APPLICATION_JSON, APPLICATION_CBOR, APPLICATION_SMILE)){
+                if(aceito.includes(formato)) return formato;
+            }
+        }
+        return APPLICATION_NDJSON;
     }
 
     @PostMapping("/inserir")
@@ -99,10 +381,39 @@ public class ProdutoController {
         }catch(ClassCastException cce){
             return generateResponseClassCast();
         }catch (RuntimeException re){
-            return generateResponseRuntime();
+            return generateResponseRuntime(re);
         }
     }
 
+    @PostMapping(value = "/inserirLote", consumes = {"application/json", "application/x-ndjson"})
+    @Operation(summary = "Insere ou atualiza produtos em lote",
+            description = "Recebe um array JSON ou um produto por linha (NDJSON). Produtos sem ID são inseridos e produtos com ID são atualizados. " +
+                    "Linhas inválidas são reportadas sem interromper a carga")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Carga processada, com os erros de cada linha quando houver",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ResultadoCarga.class)
+                    )
+            ),
+
+            @ApiResponse(responseCode = "502",
+                    description = "Erro no servidor",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "500",
+                    description = "Erro interno do servidor",
+                    content = @Content
+            )
+    })
+    public ResponseEntity<ResultadoCarga> inserirLote(InputStream entrada) throws IOException {
+        // a carga via JDBC so existe com produtos.armazenamento=jpa
+        ProdutoCargaService carga = produtoCargaService.getIfAvailable();
+        if(carga == null) throw ArmazenamentoProdutos.naoSuportado("a carga em lote");
+        return ResponseEntity.ok(carga.carregar(entrada));
+    }
+
     @DeleteMapping("/excluir/{id}")
     @Operation(summary = "Exclui produto por ID", description = "Remove um produto do sistema pelo seu ID")
     @ApiResponses(value = {
@@ -146,10 +457,42 @@ public class ProdutoController {
             if(produtoService.excluirProduto(id) == null) throw new RuntimeException();
             return ResponseEntity.ok("Produto excluido com sucesso");
         }catch (RuntimeException re){
+            if(SobrecargaException.isSobrecarga(re)){
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+                        .body("Servidor sobrecarregado, tente novamente.");
+            }
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Produto com ID " + id + " não encontrado.");
         }
     }
 
+    @PostMapping("/excluirLote")
+    @Operation(summary = "Exclui vários produtos por ID",
+            description = "Exclui os produtos do array de IDs do corpo em uma única transação, um DELETE ... RETURNING por " +
+                    "bloco de IDs, e informa quais foram excluídos e quais não existiam")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Exclusão efetuada",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ResultadoExclusao.class)
+                    )
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "Lista vazia, grande demais ou com ID zero ou negativo",
+                    content = @Content(mediaType = "application/json")
+            ),
+
+            @ApiResponse(responseCode = "503",
+                    description = "Servidor sobrecarregado",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    public ResponseEntity<?> excluirProdutos(@RequestBody List<Long> ids){
+        ResponseEntity<Map<String, String>> erros = generateResponseErrorIds(ids);
+        if(erros != null) return erros;
+        return ResponseEntity.ok(produtoService.excluirProdutos(ids));
+    }
+
     @PutMapping("/atualizar/{id}")
     @Operation(summary = "Atualiza produto por ID", description = "Atualiza um produto do sistema pelo seu ID")
     @ApiResponses(value = {
@@ -210,12 +553,13 @@ public class ProdutoController {
         }catch(ClassCastException cce){
             return generateResponseClassCast();
         }catch (RuntimeException re){
-            return generateResponseRuntime();
+            return generateResponseRuntime(re);
         }
     }
 
-    @PatchMapping("/atualizarParcial/{id}")
-    @Operation(summary = "Atualiza produto parcialmente por ID", description = "Atualiza um produto parcialmente do sistema pelo seu ID")
+    @PatchMapping(value = "/atualizarParcial/{id}", consumes = {"application/json", "application/merge-patch+json"})
+    @Operation(summary = "Atualiza produto parcialmente por ID",
+            description = "Atualiza um produto parcialmente do sistema pelo seu ID (JSON Merge Patch: somente os campos enviados são alterados)")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200",
                     description = "Produto atualizado com sucesso",
@@ -248,7 +592,7 @@ public class ProdutoController {
                     content = @Content
             )
     })
-    public ResponseEntity<Map<String, String>> atualizarProdutoParcial(@PathVariable Long id, @RequestBody Map<String, Object> updates){
+    public ResponseEntity<Map<String, String>> atualizarProdutoParcial(@PathVariable Long id, @RequestBody JsonNode updates){
         try{
             // verificacao id
             if(isNotIdFine(id)) ResponseEntity.badRequest().body("ID não pode ser zero ou negativo.");
@@ -256,42 +600,165 @@ public class ProdutoController {
             Produto produto = produtoService.buscarProduto(id);
             List<String> campos = new ArrayList<>();
 
-            if(updates.containsKey("nome")){
-                produto.setNome((String)(updates.get("nome")));
-                campos.add("nome");
-            }
-            if(updates.containsKey("descricao")){
-                produto.setDescricao((String)(updates.get("descricao")));
-                campos.add("descricao");
-            }
-            if(updates.containsKey("preco")){
-                try{
-                    produto.setPreco((Double)(updates.get("preco")));
-                }catch(ClassCastException cce){
-                    produto.setPreco((Integer)(updates.get("preco")));
-                }
-                campos.add("preco");
-            }
-            if(updates.containsKey("quantidadeEstoque")){
-                produto.setQuantidadeEstoque((Integer)(updates.get("quantidadeEstoque")));
-                campos.add("quantidadeEstoque");
-            }
-
-            ResponseEntity<Map<String, String>> erros = generateResponseError(produto, campos);
-            if (erros != null) return erros;
+            // primeiro os tipos de cada campo, depois as restricoes da entidade
+            Map<String, String> erros = validadorProduto.aplicarAtualizacoes(produto, updates, campos);
+            if(erros.isEmpty()) erros = validadorProduto.validarCampos(produto, campos);
+            if(!erros.isEmpty()) return ResponseEntity.badRequest().body(erros);
 
             produtoService.salvarProduto(produto);
             return ResponseEntity.ok(null);
-        }catch(ClassCastException cce){
-            return generateResponseClassCast();
         }catch(RuntimeException re){
-            return generateResponseRuntime();
+            return generateResponseRuntime(re);
+        }
+    }
+
+    @PatchMapping("/estoque/{id}/adicionar")
+    @Operation(summary = "Adiciona ao estoque do produto",
+            description = "Soma a quantidade ao estoque do produto em um único UPDATE, sem ler o produto antes")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Estoque atualizado com sucesso",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "404",
+                    description = "Produto não encontrado",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "ID ou quantidade inválidos",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    public ResponseEntity<Map<String, String>> adicionarEstoque(@PathVariable Long id, @RequestParam int quantidade){
+        ResponseEntity<Map<String, String>> erros = generateResponseErrorEstoque(id, quantidade);
+        if(erros != null) return erros;
+
+        if(!produtoService.adicionarEstoque(id, quantidade)) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(null);
+    }
+
+    @PatchMapping("/estoque/{id}/retirar")
+    @Operation(summary = "Retira do estoque do produto",
+            description = "Subtrai a quantidade do estoque somente se houver saldo suficiente, em um único UPDATE condicional")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Estoque atualizado com sucesso",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "409",
+                    description = "Estoque insuficiente ou produto não encontrado",
+                    content = @Content(mediaType = "application/json")
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "ID ou quantidade inválidos",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    public ResponseEntity<Map<String, String>> retirarEstoque(@PathVariable Long id, @RequestParam int quantidade){
+        ResponseEntity<Map<String, String>> erros = generateResponseErrorEstoque(id, quantidade);
+        if(erros != null) return erros;
+
+        if(!produtoService.retirarEstoque(id, quantidade)) return generateResponseEstoqueInsuficiente(id);
+        return ResponseEntity.ok(null);
+    }
+
+    @PatchMapping("/estoque/{id}/ajustar")
+    @Operation(summary = "Ajusta o estoque do produto",
+            description = "Soma o delta (positivo ou negativo) ao estoque. Com produtos.estoque.write-behind.habilitado os ajustes " +
+                    "são acumulados e gravados em lote: a resposta é 202 assim que o ajuste está no journal, ou 200 depois da " +
+                    "gravação no banco quando sincrono=true. Sem write-behind o ajuste é gravado na hora")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Estoque atualizado com sucesso",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "202",
+                    description = "Ajuste registrado, será gravado no próximo lote",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "409",
+                    description = "Estoque insuficiente ou produto não encontrado (sem write-behind ou com sincrono=true)",
+                    content = @Content(mediaType = "application/json")
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "ID ou delta inválidos",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    public ResponseEntity<Map<String, String>> ajustarEstoque(@PathVariable Long id, @RequestParam int delta,
+                                                              @RequestParam(defaultValue = "false") boolean sincrono){
+        Map<String, String> erros = new HashMap<>();
+        if(isNotIdFine(id)) erros.put("id", "ID não pode ser zero ou negativo.");
+        if(delta == 0 || delta == Integer.MIN_VALUE) erros.put("delta", "O delta deve ser diferente de zero");
+        if(!erros.isEmpty()) return ResponseEntity.badRequest().body(erros);
+
+        EstoqueWriteBehind writeBehind = estoqueWriteBehind.getIfAvailable();
+        if(writeBehind == null){
+            boolean ajustado = delta > 0 ? produtoService.adicionarEstoque(id, delta) : produtoService.retirarEstoque(id, -delta);
+            if(!ajustado) return generateResponseEstoqueInsuficiente(id);
+            return ResponseEntity.ok(null);
+        }
+
+        try{
+            if(sincrono){
+                writeBehind.ajustarSincrono(id, delta);
+                return ResponseEntity.ok(null);
+            }
+            writeBehind.ajustar(id, delta);
+            return ResponseEntity.accepted().build();
+        }catch(EstoqueInsuficienteException eie){
+            return generateResponseEstoqueInsuficiente(id);
+        }catch(RuntimeException re){
+            return generateResponseRuntime(re);
+        }
+    }
+
+    @PostMapping("/estoque/reservar")
+    @Operation(summary = "Reserva estoque de vários produtos",
+            description = "Retira o estoque de todos os itens em uma única transação: se algum item não tiver saldo, nada é reservado")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Reserva efetuada com sucesso",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "409",
+                    description = "Estoque insuficiente ou produto não encontrado em algum item",
+                    content = @Content(mediaType = "application/json")
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "ID ou quantidade inválidos, ou soma das quantidades de um mesmo produto acima do limite",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    public ResponseEntity<Map<String, String>> reservarEstoque(@RequestBody List<ItemReserva> itens){
+        if(itens.isEmpty()) return ResponseEntity.badRequest().body(Map.of("itens", "deve ter pelo menos um item"));
+        for(ItemReserva item : itens){
+            ResponseEntity<Map<String, String>> erros = generateResponseErrorEstoque(item.getId(), item.getQuantidade());
+            if(erros != null) return erros;
+        }
+
+        try{
+            produtoService.reservarEstoque(itens);
+            return ResponseEntity.ok(null);
+        }catch(EstoqueInsuficienteException eie){
+            return generateResponseEstoqueInsuficiente(eie.getId());
+        }catch(IllegalArgumentException iae){
+            return ResponseEntity.badRequest().body(Map.of("quantidade", iae.getMessage()));
         }
     }
 
     @GetMapping("/buscarPorNomeEPrecoMenorQue")
     @Operation(summary = "Busca produto com base no nome e preço menor que",
-            description = "Busca produto com base no nome e preço menor que")
+            description = "Busca produto com base no nome e preço menor que. Com fields cada produto vem somente com os campos pedidos")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200",
                     description = "Produtos encontrados",
@@ -324,27 +791,109 @@ public class ProdutoController {
                     content = @Content
             )
     })
-    public List<Produto> buscarPorNomeEPrecoMenorQue(@RequestParam String nome, @RequestParam double preco){
-        return produtoService.buscarProdutoPorNomeEPrecoMenorQue(nome, preco);
+    public ResponseEntity<List<?>> buscarPorNomeEPrecoMenorQue(@RequestParam String nome, @RequestParam double preco,
+                                                               @RequestParam(required = false) String fields){
+        List<String> campos;
+        try{
+            campos = produtoService.lerCampos(fields);
+        }catch(IllegalArgumentException iae){
+            return ResponseEntity.badRequest().build();
+        }
+        if(campos == null) return ResponseEntity.ok(produtoService.buscarProdutoPorNomeEPrecoMenorQue(nome, preco));
+        return ResponseEntity.ok(produtoService.buscarCamposPorNomeEPrecoMenorQue(campos, nome, preco));
     }
 
-    public static boolean isNotIdFine(Long id){
-        return id <= 0;
+    @GetMapping("/cache/estatisticas")
+    @Operation(summary = "Estatísticas do cache de produtos",
+            description = "Retorna acertos, falhas, taxa de acerto, expulsões e tamanho atual do cache de produtos")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Estatísticas retornadas com sucesso",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    public Map<String, Number> estatisticasCache(){
+        return produtoService.estatisticasCache();
     }
 
-    public static ResponseEntity<Map<String, String>> generateResponseError(Produto produto, List<String> campos){
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        Validator validator = factory.getValidator();
-        boolean haveError = false;
-        Map<String, String> retorno = new HashMap<>();
-        for(String campo : campos){
-            Set<ConstraintViolation<Produto>> violations = validator.validateProperty(produto, campo);
-            if (!violations.isEmpty()) {
-                retorno.put(campo, violations.iterator().next().getMessage());
-                haveError = true;
-            }
+    @GetMapping("/agregados")
+    @Operation(summary = "Totais do estoque",
+            description = "Retorna quantidade de produtos, unidades em estoque, valor total (preço x quantidade), " +
+                    "produtos abaixo de cada limite de estoque e a distribuição por faixa de preço. Os totais são mantidos " +
+                    "em memória a cada alteração e reconciliados periodicamente com o banco; alterações feitas por outras " +
+                    "instâncias ou pela carga em lote aparecem após a próxima reconciliação")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Totais retornados com sucesso",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = AgregadosEstoque.class)
+                    )
+            )
+    })
+    public AgregadosEstoque agregados(){
+        return agregacaoEstoque.consultar();
+    }
+
+    @GetMapping("/buscar")
+    @Operation(summary = "Busca produtos por termo",
+            description = "Busca o termo no nome e na descrição, com filtros de faixa de preço e estoque mínimo, " +
+                    "ordenando pelos produtos mais relevantes. Com fields cada produto vem somente com os campos pedidos")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Produtos encontrados",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = Produto.class)
+                    )
+            ),
+
+            @ApiResponse(responseCode = "400",
+                    description = "Termo vazio, faixa de preço inválida ou paginação fora do intervalo permitido",
+                    content = @Content
+            ),
+
+            @ApiResponse(responseCode = "500",
+                    description = "Erro interno do servidor",
+                    content = @Content
+            )
+    })
+    public ResponseEntity<List<?>> buscarPorTermo(@RequestParam String termo,
+                                                  @RequestParam(defaultValue = "0") double precoMinimo,
+                                                  @RequestParam(required = false) Double precoMaximo,
+                                                  @RequestParam(defaultValue = "0") int estoqueMinimo,
+                                                  @RequestParam(defaultValue = "0") int pagina,
+                                                  @RequestParam(defaultValue = "20") int tamanho,
+                                                  @RequestParam(required = false) String fields){
+        double maximo = precoMaximo == null ? Double.MAX_VALUE : precoMaximo;
+        if(termo.isBlank() || precoMinimo > maximo || pagina < 0 || tamanho <= 0 || tamanho > TAMANHO_MAXIMO_PAGINA){
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<String> campos;
+        try{
+            campos = produtoService.lerCampos(fields);
+        }catch(IllegalArgumentException iae){
+            return ResponseEntity.badRequest().build();
         }
-        return haveError ? ResponseEntity.badRequest().body(retorno) : null;
+        if(campos == null) return ResponseEntity.ok(produtoService.buscarPorTermo(termo.trim(), precoMinimo, maximo, estoqueMinimo, pagina, tamanho));
+        return ResponseEntity.ok(produtoService.buscarCamposPorTermo(campos, termo.trim(), precoMinimo, maximo, estoqueMinimo, pagina, tamanho));
+    }
+
+    // endpoints sem try/catch: falha ao obter conexao, inclusive quando o limitador rejeita
+    @ExceptionHandler({SobrecargaException.class, CannotCreateTransactionException.class, DataAccessResourceFailureException.class})
+    public ResponseEntity<Map<String, String>> tratarFalhaConexao(RuntimeException re){
+        return generateResponseRuntime(re);
+    }
+
+    // recursos que dependem do PostgreSQL quando produtos.armazenamento=memoria
+    @ExceptionHandler(UnsupportedOperationException.class)
+    public ResponseEntity<Map<String, String>> tratarNaoSuportado(UnsupportedOperationException uoe){
+        Map<String, String> retorno = new HashMap<>();
+        retorno.put("geral", uoe.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).body(retorno);
+    }
+
+    public static boolean isNotIdFine(Long id){
+        return id <= 0;
     }
 
     public static ResponseEntity<Map<String, String>> generateResponseError(BindingResult result){
@@ -355,6 +904,27 @@ public class ProdutoController {
         return ResponseEntity.badRequest().body(retorno);
     }
 
+    public static ResponseEntity<Map<String, String>> generateResponseErrorEstoque(Long id, int quantidade){
+        Map<String, String> retorno = new HashMap<>();
+        if(isNotIdFine(id)) retorno.put("id", "ID não pode ser zero ou negativo.");
+        if(quantidade <= 0) retorno.put("quantidade", "A quantidade deve ser pelo menos 1");
+        return retorno.isEmpty() ? null : ResponseEntity.badRequest().body(retorno);
+    }
+
+    public static ResponseEntity<Map<String, String>> generateResponseErrorIds(List<Long> ids){
+        Map<String, String> retorno = new HashMap<>();
+        if(ids == null || ids.isEmpty()) retorno.put("ids", "Informe pelo menos um ID");
+        else if(ids.size() > TAMANHO_MAXIMO_LOTE_IDS) retorno.put("ids", "No máximo " + TAMANHO_MAXIMO_LOTE_IDS + " IDs por requisição");
+        else if(ids.stream().anyMatch(id -> id == null || isNotIdFine(id))) retorno.put("ids", "ID não pode ser nulo, zero ou negativo.");
+        return retorno.isEmpty() ? null : ResponseEntity.badRequest().body(retorno);
+    }
+
+    public static ResponseEntity<Map<String, String>> generateResponseEstoqueInsuficiente(long id){
+        Map<String, String> retorno = new HashMap<>();
+        retorno.put("quantidadeEstoque", "Estoque insuficiente ou produto com ID " + id + " não encontrado.");
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(retorno);
+    }
+
     public static ResponseEntity<Map<String, String>> generateResponseClassCast(){
         Map<String, String> retorno = new HashMap<>();
         retorno.put("preco", "deve ser numérico");
@@ -362,6 +932,14 @@ public class ProdutoController {
         return ResponseEntity.badRequest().body(retorno);
     }
 
+    public static ResponseEntity<Map<String, String>> generateResponseRuntime(RuntimeException re){
+        if(!SobrecargaException.isSobrecarga(re)) return generateResponseRuntime();
+
+        Map<String, String> retorno = new HashMap<>();
+        retorno.put("geral", "servidor sobrecarregado, tente novamente");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(retorno);
+    }
+
     public static ResponseEntity<Map<String, String>> generateResponseRuntime(){
         Map<String, String> retorno = new HashMap<>();
         retorno.put("geral", "erro na requisição");
@@ -0,0 +1,82 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@Schema(description = "Totais do estoque mantidos em memória a cada alteração e reconciliados periodicamente com o banco")
+public class AgregadosEstoque {
+    @Schema(description = "Quantidade de produtos cadastrados", example = "10000")
+    private long produtos;
+    @Schema(description = "Soma de quantidadeEstoque de todos os produtos", example = "482000")
+    private long unidades;
+    @Schema(description = "Soma de preco * quantidadeEstoque de todos os produtos", example = "9834512.5")
+    private double valorTotal;
+    @Schema(description = "Produtos com quantidadeEstoque abaixo de cada limite configurado", example = "{\"1\": 12, \"10\": 85}")
+    private Map<Integer, Long> estoqueAbaixoDe;
+    @Schema(description = "Distribuição dos produtos por faixa de preço")
+    private List<FaixaPreco> faixasPreco;
+    @Schema(description = "Última reconciliação com o banco, nula antes da primeira")
+    private Instant ultimaReconciliacao;
+
+    public AgregadosEstoque(){}
+
+    public AgregadosEstoque(long produtos, long unidades, double valorTotal, Map<Integer, Long> estoqueAbaixoDe,
+                            List<FaixaPreco> faixasPreco, Instant ultimaReconciliacao){
+        this.produtos = produtos;
+        this.unidades = unidades;
+        this.valorTotal = valorTotal;
+        this.estoqueAbaixoDe = estoqueAbaixoDe;
+        this.faixasPreco = faixasPreco;
+        this.ultimaReconciliacao = ultimaReconciliacao;
+    }
+
+    public long getProdutos() {
+        return produtos;
+    }
+
+    public long getUnidades() {
+        return unidades;
+    }
+
+    public double getValorTotal() {
+        return valorTotal;
+    }
+
+    public Map<Integer, Long> getEstoqueAbaixoDe() {
+        return estoqueAbaixoDe;
+    }
+
+    public List<FaixaPreco> getFaixasPreco() {
+        return faixasPreco;
+    }
+
+    public Instant getUltimaReconciliacao() {
+        return ultimaReconciliacao;
+    }
+
+    public void setProdutos(long produtos) {
+        this.produtos = produtos;
+    }
+
+    public void setUnidades(long unidades) {
+        this.unidades = unidades;
+    }
+
+    public void setValorTotal(double valorTotal) {
+        this.valorTotal = valorTotal;
+    }
+
+    public void setEstoqueAbaixoDe(Map<Integer, Long> estoqueAbaixoDe) {
+        this.estoqueAbaixoDe = estoqueAbaixoDe;
+    }
+
+    public void setFaixasPreco(List<FaixaPreco> faixasPreco) {
+        this.faixasPreco = faixasPreco;
+    }
+
+    public void setUltimaReconciliacao(Instant ultimaReconciliacao) {
+        this.ultimaReconciliacao = ultimaReconciliacao;
+    }
+}
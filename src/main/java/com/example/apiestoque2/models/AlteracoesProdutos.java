@@ -0,0 +1,58 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Produtos alterados e excluídos desde uma revisão")
+public class AlteracoesProdutos {
+    @Schema(description = "Produtos inseridos ou alterados, na ordem das transações que os alteraram")
+    private List<Produto> alterados;
+    @Schema(description = "IDs dos produtos excluídos")
+    private List<Long> excluidos;
+    @Schema(description = "Posição a enviar no parâmetro desde da próxima consulta: todas as alterações confirmadas " +
+            "até ela já foram entregues", example = "1500")
+    private long revisao;
+    @Schema(description = "Indica que há mais alterações depois desta revisão")
+    private boolean temMais;
+
+    public AlteracoesProdutos(){}
+
+    public AlteracoesProdutos(List<Produto> alterados, List<Long> excluidos, long revisao, boolean temMais){
+        this.alterados = alterados;
+        this.excluidos = excluidos;
+        this.revisao = revisao;
+        this.temMais = temMais;
+    }
+
+    public List<Produto> getAlterados() {
+        return alterados;
+    }
+
+    public List<Long> getExcluidos() {
+        return excluidos;
+    }
+
+    public long getRevisao() {
+        return revisao;
+    }
+
+    public boolean isTemMais() {
+        return temMais;
+    }
+
+    public void setAlterados(List<Produto> alterados) {
+        this.alterados = alterados;
+    }
+
+    public void setExcluidos(List<Long> excluidos) {
+        this.excluidos = excluidos;
+    }
+
+    public void setRevisao(long revisao) {
+        this.revisao = revisao;
+    }
+
+    public void setTemMais(boolean temMais) {
+        this.temMais = temMais;
+    }
+}
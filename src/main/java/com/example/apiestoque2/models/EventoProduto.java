@@ -0,0 +1,57 @@
+package com.example.apiestoque2.models;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+
+@Schema(description = "Alteração de um produto publicada a partir da tabela outbox")
+public class EventoProduto {
+    @Schema(description = "ID do evento, crescente", example = "981")
+    private long id;
+    @Schema(description = "ID do produto alterado", example = "1234")
+    private long produtoId;
+    @Schema(description = "Tipo da alteração", example = "ATUALIZADO", allowableValues = {"CRIADO", "ATUALIZADO", "EXCLUIDO"})
+    private String tipo;
+    @Schema(description = "Revisão do catálogo em que a alteração ocorreu", example = "1500")
+    private long revisao;
+    @Schema(description = "Produto depois da alteração (antes dela, na exclusão)", implementation = Produto.class)
+    @JsonRawValue
+    private String dados;
+    @Schema(description = "Momento da alteração")
+    private Instant criadoEm;
+
+    public EventoProduto(){}
+
+    public EventoProduto(long id, long produtoId, String tipo, long revisao, String dados, Instant criadoEm){
+        this.id = id;
+        this.produtoId = produtoId;
+        this.tipo = tipo;
+        this.revisao = revisao;
+        this.dados = dados;
+        this.criadoEm = criadoEm;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getProdutoId() {
+        return produtoId;
+    }
+
+    public String getTipo() {
+        return tipo;
+    }
+
+    public long getRevisao() {
+        return revisao;
+    }
+
+    public String getDados() {
+        return dados;
+    }
+
+    public Instant getCriadoEm() {
+        return criadoEm;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Quantidade de produtos com preço dentro de uma faixa")
+public class FaixaPreco {
+    @Schema(description = "Preço mínimo da faixa (inclusivo)", example = "10.0")
+    private double precoMinimo;
+    @Schema(description = "Preço máximo da faixa (exclusivo), nulo na última faixa", example = "50.0")
+    private Double precoMaximo;
+    @Schema(description = "Produtos na faixa", example = "320")
+    private long produtos;
+
+    public FaixaPreco(){}
+
+    public FaixaPreco(double precoMinimo, Double precoMaximo, long produtos){
+        this.precoMinimo = precoMinimo;
+        this.precoMaximo = precoMaximo;
+        this.produtos = produtos;
+    }
+
+    public double getPrecoMinimo() {
+        return precoMinimo;
+    }
+
+    public Double getPrecoMaximo() {
+        return precoMaximo;
+    }
+
+    public long getProdutos() {
+        return produtos;
+    }
+
+    public void setPrecoMinimo(double precoMinimo) {
+        this.precoMinimo = precoMinimo;
+    }
+
+    public void setPrecoMaximo(Double precoMaximo) {
+        this.precoMaximo = precoMaximo;
+    }
+
+    public void setProdutos(long produtos) {
+        this.produtos = produtos;
+    }
+}
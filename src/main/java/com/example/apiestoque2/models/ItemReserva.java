@@ -0,0 +1,33 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Item de uma reserva de estoque")
+public class ItemReserva {
+    @Schema(description = "ID do produto", example = "1234")
+    private long id;
+    @Schema(description = "Quantidade a reservar", example = "2")
+    private int quantidade;
+
+    public ItemReserva(){}
+
+    public ItemReserva(long id, int quantidade){
+        this.id = id;
+        this.quantidade = quantidade;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getQuantidade() {
+        return quantidade;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public void setQuantidade(int quantidade) {
+        this.quantidade = quantidade;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+import java.util.Map;
+
+@Schema(description = "Página de produtos ordenada por ID, somente com os campos pedidos em fields")
+public class PaginaCamposProdutos {
+    @Schema(description = "Produtos da página, cada um com os campos pedidos e o ID")
+    private List<Map<String, Object>> produtos;
+    @Schema(description = "Cursor para a próxima página, nulo quando não há mais produtos", example = "1234")
+    private Long proximoCursor;
+
+    public PaginaCamposProdutos(){}
+
+    public PaginaCamposProdutos(List<Map<String, Object>> produtos, Long proximoCursor){
+        this.produtos = produtos;
+        this.proximoCursor = proximoCursor;
+    }
+
+    public List<Map<String, Object>> getProdutos() {
+        return produtos;
+    }
+
+    public Long getProximoCursor() {
+        return proximoCursor;
+    }
+
+    public void setProdutos(List<Map<String, Object>> produtos) {
+        this.produtos = produtos;
+    }
+
+    public void setProximoCursor(Long proximoCursor) {
+        this.proximoCursor = proximoCursor;
+    }
+}
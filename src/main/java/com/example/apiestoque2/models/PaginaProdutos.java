@@ -0,0 +1,35 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Página de produtos ordenada por ID")
+public class PaginaProdutos {
+    @Schema(description = "Produtos da página")
+    private List<Produto> produtos;
+    @Schema(description = "Cursor para a próxima página, nulo quando não há mais produtos", example = "1234")
+    private Long proximoCursor;
+
+    public PaginaProdutos(){}
+
+    public PaginaProdutos(List<Produto> produtos, Long proximoCursor){
+        this.produtos = produtos;
+        this.proximoCursor = proximoCursor;
+    }
+
+    public List<Produto> getProdutos() {
+        return produtos;
+    }
+
+    public Long getProximoCursor() {
+        return proximoCursor;
+    }
+
+    public void setProdutos(List<Produto> produtos) {
+        this.produtos = produtos;
+    }
+
+    public void setProximoCursor(Long proximoCursor) {
+        this.proximoCursor = proximoCursor;
+    }
+}
@@ -1,6 +1,9 @@
 package com.example.apiestoque2.models;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.Generated;
+import org.hibernate.generator.EventType;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
@@ -28,6 +31,12 @@ public class Produto {
     @Column(name="quantidadeestoque")
     @Schema(description = "Quantidade disponível em estoque", example = "50")
     private int quantidadeEstoque;
+    // preenchida pelo trigger do banco a cada insert/update (sequence de V7); para o mesmo produto cresce na ordem dos commits
+    @Generated(event = {EventType.INSERT, EventType.UPDATE})
+    @ColumnDefault("0")
+    @Schema(description = "Revisão da última alteração do produto", example = "42",
+            accessMode = Schema.AccessMode.READ_ONLY)
+    private long revisao;
 
     public Produto(){}
 
@@ -46,6 +55,11 @@ public class Produto {
         this.quantidadeEstoque = quantidadeEstoque;
     }
 
+    public Produto(Produto outro){
+        this(outro.id, outro.nome, outro.descricao, outro.preco, outro.quantidadeEstoque);
+        this.revisao = outro.revisao;
+    }
+
     public String getNome() {
         return nome;
     }
@@ -66,6 +80,10 @@ public class Produto {
         return descricao;
     }
 
+    public long getRevisao() {
+        return revisao;
+    }
+
     public void setNome(String nome) {
         this.nome = nome;
     }
@@ -86,6 +104,10 @@ public class Produto {
         this.id = id;
     }
 
+    public void setRevisao(long revisao) {
+        this.revisao = revisao;
+    }
+
     @Override
     public String toString() {
         return "Produto{" +
@@ -94,6 +116,7 @@ public class Produto {
                 ", descricao='" + descricao + '\'' +
                 ", preco=" + preco +
                 ", quantidadeEstoque=" + quantidadeEstoque +
+                ", revisao=" + revisao +
                 '}';
     }
 }
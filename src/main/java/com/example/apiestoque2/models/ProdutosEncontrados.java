@@ -0,0 +1,35 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Produtos buscados por uma lista de IDs")
+public class ProdutosEncontrados {
+    @Schema(description = "Produtos encontrados, na ordem dos IDs pedidos")
+    private List<Produto> produtos;
+    @Schema(description = "IDs pedidos que não existem")
+    private List<Long> naoEncontrados;
+
+    public ProdutosEncontrados(){}
+
+    public ProdutosEncontrados(List<Produto> produtos, List<Long> naoEncontrados){
+        this.produtos = produtos;
+        this.naoEncontrados = naoEncontrados;
+    }
+
+    public List<Produto> getProdutos() {
+        return produtos;
+    }
+
+    public List<Long> getNaoEncontrados() {
+        return naoEncontrados;
+    }
+
+    public void setProdutos(List<Produto> produtos) {
+        this.produtos = produtos;
+    }
+
+    public void setNaoEncontrados(List<Long> naoEncontrados) {
+        this.naoEncontrados = naoEncontrados;
+    }
+}
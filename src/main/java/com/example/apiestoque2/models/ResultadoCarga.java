@@ -0,0 +1,39 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+@Schema(description = "Resultado de uma carga de produtos em lote")
+public class ResultadoCarga {
+    @Schema(description = "Quantidade de produtos inseridos", example = "980")
+    private int inseridos;
+    @Schema(description = "Quantidade de produtos atualizados", example = "15")
+    private int atualizados;
+    @Schema(description = "Erros por linha da carga (começando em 1), com a mensagem de cada campo")
+    private final Map<Integer, Map<String, String>> erros = new TreeMap<>();
+
+    public int getInseridos() {
+        return inseridos;
+    }
+
+    public int getAtualizados() {
+        return atualizados;
+    }
+
+    public Map<Integer, Map<String, String>> getErros() {
+        return erros;
+    }
+
+    public void somarInseridos(int quantidade) {
+        this.inseridos += quantidade;
+    }
+
+    public void somarAtualizados(int quantidade) {
+        this.atualizados += quantidade;
+    }
+
+    public void adicionarErro(int linha, String campo, String mensagem) {
+        erros.computeIfAbsent(linha, l -> new TreeMap<>()).put(campo, mensagem);
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.apiestoque2.models;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Resultado da exclusão de uma lista de produtos")
+public class ResultadoExclusao {
+    @Schema(description = "IDs excluídos")
+    private List<Long> excluidos;
+    @Schema(description = "IDs pedidos que não existem")
+    private List<Long> naoEncontrados;
+
+    public ResultadoExclusao(){}
+
+    public ResultadoExclusao(List<Long> excluidos, List<Long> naoEncontrados){
+        this.excluidos = excluidos;
+        this.naoEncontrados = naoEncontrados;
+    }
+
+    public List<Long> getExcluidos() {
+        return excluidos;
+    }
+
+    public List<Long> getNaoEncontrados() {
+        return naoEncontrados;
+    }
+
+    public void setExcluidos(List<Long> excluidos) {
+        this.excluidos = excluidos;
+    }
+
+    public void setNaoEncontrados(List<Long> naoEncontrados) {
+        this.naoEncontrados = naoEncontrados;
+    }
+}
@@ -1,16 +1,88 @@
 package com.example.apiestoque2.repository;
 import com.example.apiestoque2.models.Produto;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
-public interface ProdutoRepository extends JpaRepository<Produto, Long> {
-    @Modifying
-    @Query("DELETE FROM Produto e where e.id = ?1")
-    void deleteById(Long id);
+// consultas declaradas aqui nao herdam o readOnly do SimpleJpaRepository
+@Transactional(readOnly = true)
+public interface ProdutoRepository extends JpaRepository<Produto, Long>, ProdutoRepositoryCustom {
+    // exclui e devolve o produto no mesmo comando, sem o SELECT antes
+    @Transactional
+    @Query(value = "DELETE FROM produto WHERE id = ?1 RETURNING *", nativeQuery = true)
+    Optional<Produto> excluirRetornando(long id);
+
+    @Transactional
+    @Query(value = "DELETE FROM produto WHERE id IN (?1) RETURNING id", nativeQuery = true)
+    List<Long> excluirTodosRetornando(Collection<Long> ids);
 
     List<Produto> findByNomeLikeIgnoreCaseAndPrecoLessThan(String nome, double preco);
+
+    // usa os indices GIN de V2__indices_busca.sql (trigramas em upper(nome) e texto completo em nome + descricao)
+    String FILTRO_BUSCA_POR_TERMO = "WHERE (upper(p.nome) LIKE upper(:padrao) " +
+            "OR to_tsvector('simple', coalesce(p.nome, '') || ' ' || coalesce(p.descricao, '')) @@ plainto_tsquery('simple', :termo)) " +
+            "AND p.preco >= :precoMinimo AND p.preco <= :precoMaximo " +
+            "AND p.quantidadeestoque >= :estoqueMinimo " +
+            "ORDER BY ts_rank(to_tsvector('simple', coalesce(p.nome, '') || ' ' || coalesce(p.descricao, '')), plainto_tsquery('simple', :termo)) " +
+            "+ similarity(upper(p.nome), upper(:termo)) DESC, p.id " +
+            "LIMIT :tamanho OFFSET :deslocamento";
+
+    @Query(value = "SELECT * FROM produto p " + FILTRO_BUSCA_POR_TERMO, nativeQuery = true)
+    List<Produto> buscarPorTermo(@Param("termo") String termo, @Param("padrao") String padrao,
+                                 @Param("precoMinimo") double precoMinimo, @Param("precoMaximo") double precoMaximo,
+                                 @Param("estoqueMinimo") int estoqueMinimo,
+                                 @Param("tamanho") int tamanho, @Param("deslocamento") long deslocamento);
+
+    // UPDATE condicional: a checagem e a baixa acontecem no mesmo comando, sem ler a entidade antes
+    @Modifying
+    @Transactional
+    @Query("UPDATE Produto p SET p.quantidadeEstoque = p.quantidadeEstoque - ?2 WHERE p.id = ?1 AND p.quantidadeEstoque >= ?2")
+    int retirarEstoque(long id, int quantidade);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Produto p SET p.quantidadeEstoque = p.quantidadeEstoque + ?2 WHERE p.id = ?1")
+    int adicionarEstoque(long id, int quantidade);
+
+    // posicao confirmada (V7__revisao_sem_trava_global.sql): toda transacao ate ela ja terminou neste snapshot
+    @Query(value = "SELECT produto_posicao(pg_snapshot_xmin(pg_current_snapshot())) - 1", nativeQuery = true)
+    long buscarPosicaoConfirmada();
+
+    // o snapshot (xmin, xmax e transacoes em andamento) decide sozinho o que a transacao enxerga: o mesmo texto de
+    // snapshot sempre le o mesmo catalogo, o que o xmin sozinho nao garante (commits acima dele tambem aparecem)
+    @Query(value = "SELECT left(md5(pg_current_snapshot()::text), 16)", nativeQuery = true)
+    String buscarVersaoSnapshot();
+
+    // posicao da alteracao na ordem tamanho (a partir de 0) depois de desde; vazio se ha menos alteracoes ate ate
+    @Query(value = "SELECT posicao FROM produto WHERE posicao > ?1 AND posicao <= ?2 ORDER BY posicao OFFSET ?3 LIMIT 1", nativeQuery = true)
+    Optional<Long> buscarPosicaoNaOrdem(long desde, long ate, int ordem);
+
+    @Query(value = "SELECT * FROM produto WHERE posicao > ?1 AND posicao <= ?2 ORDER BY posicao, id", nativeQuery = true)
+    List<Produto> buscarAlterados(long desde, long ate);
+
+    @Query(value = "SELECT id FROM produto_exclusao WHERE posicao > ?1 AND posicao <= ?2 ORDER BY posicao", nativeQuery = true)
+    List<Long> buscarExcluidos(long desde, long ate);
+
+    // paginacao por chave: usa o indice da PK em vez de OFFSET
+    List<Produto> findByIdGreaterThanOrderByIdAsc(long id, Limit limite);
+
+    // leitura em cursor, o driver busca as linhas em blocos do tamanho do fetch size
+    @Query("SELECT p FROM Produto p ORDER BY p.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<Produto> streamAllByOrderById();
 }
@@ -0,0 +1,26 @@
+package com.example.apiestoque2.repository;
+
+import org.springframework.data.domain.Limit;
+
+import java.util.List;
+import java.util.Map;
+
+// consultas com projecao (fields=): devolvem so as colunas pedidas, sem montar entidades
+public interface ProdutoRepositoryCustom {
+    // campo da API -> coluna da tabela produto
+    Map<String, String> CAMPOS_PROJECAO = Map.of(
+            "id", "id",
+            "nome", "nome",
+            "descricao", "descricao",
+            "preco", "preco",
+            "quantidadeEstoque", "quantidadeestoque",
+            "revisao", "revisao");
+
+    List<Map<String, Object>> listarCampos(List<String> campos, long cursor, Limit limite);
+
+    List<Map<String, Object>> buscarCamposPorNomeEPrecoMenorQue(List<String> campos, String nome, double preco);
+
+    List<Map<String, Object>> buscarCamposPorTermo(List<String> campos, String termo, String padrao,
+                                                   double precoMinimo, double precoMaximo, int estoqueMinimo,
+                                                   int tamanho, long deslocamento);
+}
@@ -0,0 +1,99 @@
+package com.example.apiestoque2.repository;
+
+import com.example.apiestoque2.models.Produto;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.ParameterExpression;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.springframework.data.domain.Limit;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Tuple em vez de entidade: o Hibernate nao guarda snapshot nem coloca nada no contexto de persistencia
+public class ProdutoRepositoryImpl implements ProdutoRepositoryCustom {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Map<String, Object>> listarCampos(List<String> campos, long cursor, Limit limite) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> consulta = cb.createTupleQuery();
+        Root<Produto> produto = consulta.from(Produto.class);
+        consulta.multiselect(selecoes(produto, campos))
+                .where(cb.greaterThan(produto.get("id"), cursor))
+                .orderBy(cb.asc(produto.get("id")));
+
+        TypedQuery<Tuple> query = entityManager.createQuery(consulta);
+        if(limite.isLimited()) query.setMaxResults(limite.max());
+        return paraMapas(query.getResultList(), campos);
+    }
+
+    @Override
+    public List<Map<String, Object>> buscarCamposPorNomeEPrecoMenorQue(List<String> campos, String nome, double preco) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> consulta = cb.createTupleQuery();
+        Root<Produto> produto = consulta.from(Produto.class);
+        // mesmo filtro de findByNomeLikeIgnoreCaseAndPrecoLessThan, para usar o indice de trigramas. O nome vai como
+        // parametro: com literal cada nome gera um SQL diferente (sem reuso do plano) e o texto entra no SQL
+        ParameterExpression<String> padraoNome = cb.parameter(String.class);
+        consulta.multiselect(selecoes(produto, campos))
+                .where(cb.like(cb.upper(produto.get("nome")), cb.upper(padraoNome)),
+                        cb.lessThan(produto.get("preco"), preco));
+        return paraMapas(entityManager.createQuery(consulta).setParameter(padraoNome, nome).getResultList(), campos);
+    }
+
+    @Override
+    public List<Map<String, Object>> buscarCamposPorTermo(List<String> campos, String termo, String padrao,
+                                                          double precoMinimo, double precoMaximo, int estoqueMinimo,
+                                                          int tamanho, long deslocamento) {
+        // os nomes de coluna vem de CAMPOS_PROJECAO, nunca da requisicao
+        String colunas = campos.stream().map(campo -> "p." + coluna(campo)).collect(Collectors.joining(", "));
+        @SuppressWarnings("unchecked")
+        List<Tuple> linhas = entityManager.createNativeQuery("SELECT " + colunas + " FROM produto p " + ProdutoRepository.FILTRO_BUSCA_POR_TERMO, Tuple.class)
+                .setParameter("termo", termo)
+                .setParameter("padrao", padrao)
+                .setParameter("precoMinimo", precoMinimo)
+                .setParameter("precoMaximo", precoMaximo)
+                .setParameter("estoqueMinimo", estoqueMinimo)
+                .setParameter("tamanho", tamanho)
+                .setParameter("deslocamento", deslocamento)
+                .getResultList();
+        return paraMapas(linhas, campos);
+    }
+
+    private static List<Selection<?>> selecoes(Root<Produto> produto, List<String> campos){
+        List<Selection<?>> selecoes = new ArrayList<>(campos.size());
+        for(String campo : campos){
+            coluna(campo);
+            selecoes.add(produto.get(campo));
+        }
+        return selecoes;
+    }
+
+    private static String coluna(String campo){
+        String coluna = CAMPOS_PROJECAO.get(campo);
+        if(coluna == null) throw new IllegalArgumentException("campo desconhecido: " + campo);
+        return coluna;
+    }
+
+    private static List<Map<String, Object>> paraMapas(List<Tuple> linhas, List<String> campos){
+        List<Map<String, Object>> produtos = new ArrayList<>(linhas.size());
+        for(Tuple linha : linhas){
+            Map<String, Object> produto = new LinkedHashMap<>(campos.size() * 2);
+            for(int i = 0; i < campos.size(); i++){
+                produto.put(campos.get(i), linha.get(i));
+            }
+            produtos.add(produto);
+        }
+        return produtos;
+    }
+}
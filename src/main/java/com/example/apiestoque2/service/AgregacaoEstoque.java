@@ -0,0 +1,234 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.AgregadosEstoque;
+import com.example.apiestoque2.models.FaixaPreco;
+import com.example.apiestoque2.models.Produto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Totais do estoque (valor, unidades, estoque baixo, faixas de preco) atualizados pelo ProdutoService a cada alteracao,
+// entao a consulta nao depende do tamanho do catalogo. Guarda preco e estoque de cada produto para calcular a
+// diferenca de cada alteracao; o write-behind de estoque informa os deltas que gravou. Alteracoes que nao passam
+// por esta instancia (carga em lote, outras instancias) so aparecem na proxima reconciliacao, que relê o catalogo
+// inteiro numa thread propria, fora do agendador compartilhado com o relay de eventos e o write-behind
+@Service
+public class AgregacaoEstoque implements SmartLifecycle, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(AgregacaoEstoque.class);
+    private static final List<String> CAMPOS = List.of("id", "preco", "quantidadeEstoque");
+    private static final int TAMANHO_PAGINA = 10_000;
+
+    private final ArmazenamentoProdutos armazenamento;
+    private final int[] limitesEstoque;
+    private final double[] faixasPreco;
+    private final long intervaloReconciliacaoMs;
+    private final ScheduledExecutorService reconciliacao = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "agregados-reconciliacao");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ScheduledFuture<?> agendada;
+    private Estado estado;
+    // preenchido durante a reconciliacao: alteracoes feitas enquanto o catalogo e relido (null = exclusao)
+    private Map<Long, Valores> pendentes;
+    private Instant ultimaReconciliacao;
+    private volatile double divergencia;
+
+    public AgregacaoEstoque(ArmazenamentoProdutos armazenamento, MeterRegistry registry,
+                            @Value("${produtos.agregados.limites-estoque:1,10,50}") int[] limitesEstoque,
+                            @Value("${produtos.agregados.faixas-preco:10,50,100,500,1000}") double[] faixasPreco,
+                            @Value("${produtos.agregados.intervalo-reconciliacao-ms:60000}") long intervaloReconciliacaoMs){
+        this.armazenamento = armazenamento;
+        this.intervaloReconciliacaoMs = intervaloReconciliacaoMs;
+        this.limitesEstoque = limitesEstoque.clone();
+        this.faixasPreco = faixasPreco.clone();
+        Arrays.sort(this.limitesEstoque);
+        Arrays.sort(this.faixasPreco);
+        this.estado = new Estado(this.limitesEstoque, this.faixasPreco);
+        Gauge.builder("produto.agregados.divergencia", () -> divergencia)
+                .description("Diferenca no valor total corrigida pela ultima reconciliacao")
+                .register(registry);
+    }
+
+    // a primeira reconciliacao roda quando o contexto termina de subir (depois das migracoes) e carrega os totais;
+    // o treino do CDS (spring.context.exit=onRefresh) sai antes disso e nunca le o catalogo
+    @Override
+    public synchronized void start() {
+        if(agendada == null){
+            agendada = reconciliacao.scheduleWithFixedDelay(this::reconciliar, 0, intervaloReconciliacaoMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if(agendada != null){
+            agendada.cancel(false);
+            agendada = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return agendada != null;
+    }
+
+    @Override
+    public void destroy() {
+        reconciliacao.shutdownNow();
+    }
+
+    public synchronized void registrar(Produto produto){
+        estado.gravar(produto.getId(), produto.getPreco(), produto.getQuantidadeEstoque());
+        if(pendentes != null) pendentes.put(produto.getId(), new Valores(produto.getPreco(), produto.getQuantidadeEstoque()));
+    }
+
+    public synchronized void remover(long id){
+        estado.remover(id);
+        if(pendentes != null) pendentes.put(id, null);
+    }
+
+    public synchronized void ajustarEstoque(long id, int delta){
+        int posicao = estado.posicoes.obter(id);
+        if(posicao == MapaLongInt.AUSENTE) return;
+        double preco = estado.precos[posicao];
+        int estoque = estado.estoques[posicao] + delta;
+        estado.gravar(id, preco, estoque);
+        if(pendentes != null) pendentes.put(id, new Valores(preco, estoque));
+    }
+
+    public synchronized AgregadosEstoque consultar(){
+        Map<Integer, Long> abaixoDe = new LinkedHashMap<>();
+        for(int i = 0; i < limitesEstoque.length; i++) abaixoDe.put(limitesEstoque[i], estado.abaixoDoLimite[i]);
+
+        List<FaixaPreco> faixas = new ArrayList<>(faixasPreco.length + 1);
+        for(int i = 0; i <= faixasPreco.length; i++){
+            faixas.add(new FaixaPreco(i == 0 ? 0 : faixasPreco[i - 1], i == faixasPreco.length ? null : faixasPreco[i],
+                    estado.porFaixa[i]));
+        }
+        return new AgregadosEstoque(estado.tamanho, estado.unidades, estado.valorTotal, abaixoDe, faixas, ultimaReconciliacao);
+    }
+
+    // relê o catalogo sem travar as alteracoes; o que mudou durante a leitura e reaplicado antes da troca.
+    // Tambem zera o erro acumulado de ponto flutuante no valor total
+    public void reconciliar(){
+        synchronized(this){
+            pendentes = new HashMap<>();
+        }
+        try{
+            Estado novo = new Estado(limitesEstoque, faixasPreco);
+            long cursor = 0;
+            while(true){
+                List<Map<String, Object>> pagina = armazenamento.listarCampos(CAMPOS, cursor, Limit.of(TAMANHO_PAGINA));
+                for(Map<String, Object> produto : pagina){
+                    cursor = ((Number) produto.get("id")).longValue();
+                    novo.gravar(cursor, ((Number) produto.get("preco")).doubleValue(),
+                            ((Number) produto.get("quantidadeEstoque")).intValue());
+                }
+                if(pagina.size() < TAMANHO_PAGINA) break;
+            }
+
+            synchronized(this){
+                pendentes.forEach((id, valores) -> {
+                    if(valores == null) novo.remover(id);
+                    else novo.gravar(id, valores.preco(), valores.estoque());
+                });
+                divergencia = Math.abs(novo.valorTotal - estado.valorTotal);
+                estado = novo;
+                ultimaReconciliacao = Instant.now();
+            }
+        }catch(RuntimeException re){
+            log.warn("Falha ao reconciliar os agregados de estoque, nova tentativa no próximo ciclo", re);
+        }finally{
+            synchronized(this){
+                pendentes = null;
+            }
+        }
+    }
+
+    private record Valores(double preco, int estoque){}
+
+    // preco e estoque por produto em colunas (sem objeto por produto) e os totais derivados delas
+    private static final class Estado {
+        private final MapaLongInt posicoes = new MapaLongInt(1024);
+        private final int[] limitesEstoque;
+        private final double[] faixasPreco;
+        private final long[] abaixoDoLimite;
+        private final long[] porFaixa;
+        private long[] ids = new long[1024];
+        private double[] precos = new double[1024];
+        private int[] estoques = new int[1024];
+        private int tamanho;
+        private double valorTotal;
+        private long unidades;
+
+        private Estado(int[] limitesEstoque, double[] faixasPreco){
+            this.limitesEstoque = limitesEstoque;
+            this.faixasPreco = faixasPreco;
+            this.abaixoDoLimite = new long[limitesEstoque.length];
+            this.porFaixa = new long[faixasPreco.length + 1];
+        }
+
+        private void gravar(long id, double preco, int estoque){
+            int posicao = posicoes.obter(id);
+            if(posicao == MapaLongInt.AUSENTE){
+                if(tamanho == ids.length){
+                    ids = Arrays.copyOf(ids, tamanho * 2);
+                    precos = Arrays.copyOf(precos, tamanho * 2);
+                    estoques = Arrays.copyOf(estoques, tamanho * 2);
+                }
+                posicao = tamanho++;
+                ids[posicao] = id;
+                posicoes.colocar(id, posicao);
+            }else{
+                contribuir(posicao, -1);
+            }
+            precos[posicao] = preco;
+            estoques[posicao] = estoque;
+            contribuir(posicao, 1);
+        }
+
+        // o ultimo produto ocupa a posicao liberada
+        private void remover(long id){
+            int posicao = posicoes.obter(id);
+            if(posicao == MapaLongInt.AUSENTE) return;
+            contribuir(posicao, -1);
+            posicoes.remover(id);
+            int ultima = --tamanho;
+            if(posicao != ultima){
+                ids[posicao] = ids[ultima];
+                precos[posicao] = precos[ultima];
+                estoques[posicao] = estoques[ultima];
+                posicoes.colocar(ids[posicao], posicao);
+            }
+        }
+
+        private void contribuir(int posicao, int sinal){
+            double preco = precos[posicao];
+            int estoque = estoques[posicao];
+            valorTotal += sinal * preco * estoque;
+            unidades += (long) sinal * estoque;
+            for(int i = limitesEstoque.length - 1; i >= 0 && estoque < limitesEstoque[i]; i--) abaixoDoLimite[i] += sinal;
+            int faixa = Arrays.binarySearch(faixasPreco, preco);
+            porFaixa[faixa >= 0 ? faixa + 1 : -faixa - 1] += sinal;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.AlteracoesProdutos;
+import com.example.apiestoque2.models.Produto;
+import org.springframework.data.domain.Limit;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Onde o ProdutoService guarda os produtos, escolhido por produtos.armazenamento:
+// jpa (PostgreSQL, padrao) ou memoria (ArmazenamentoProdutosMemoria).
+// Os metodos default sao recursos que dependem do SQL do PostgreSQL
+public interface ArmazenamentoProdutos {
+
+    Optional<Produto> buscarPorId(long id);
+
+    // somente os que existem, em qualquer ordem
+    List<Produto> buscarPorIds(Collection<Long> ids);
+
+    List<Produto> buscarTodos();
+
+    // IDs maiores que o cursor, em ordem de ID
+    List<Produto> buscarPagina(long cursor, int tamanho);
+
+    // em ordem de ID, sem manter todos os produtos em memoria ao mesmo tempo
+    void exportarTodos(Consumer<Produto> consumidor);
+
+    // nome com a semantica do LIKE (% e _), sem diferenciar maiusculas
+    List<Produto> buscarPorNomeEPrecoMenorQue(String nome, double preco);
+
+    List<Map<String, Object>> listarCampos(List<String> campos, long cursor, Limit limite);
+
+    List<Map<String, Object>> buscarCamposPorNomeEPrecoMenorQue(List<String> campos, String nome, double preco);
+
+    Produto salvar(Produto produto);
+
+    Optional<Produto> excluir(long id);
+
+    // tudo ou nada; retorna os IDs que existiam
+    List<Long> excluirTodos(List<Long> ids);
+
+    boolean adicionarEstoque(long id, int quantidade);
+
+    boolean retirarEstoque(long id, int quantidade);
+
+    // tudo ou nada: lanca EstoqueInsuficienteException com o primeiro ID sem saldo
+    void reservarEstoque(SortedMap<Long, Integer> quantidades);
+
+    long buscarRevisaoAtual();
+
+    // versao do catalogo e a leitura que depende dela sobre o mesmo estado: um ETag nunca acompanha um corpo mais
+    // antigo que ele. Aqui a versao e lida antes, entao o corpo pode ser mais novo (o cliente so baixa de novo)
+    default <T> T lerComVersaoCatalogo(Function<String, T> leitura){
+        return leitura.apply(String.valueOf(buscarRevisaoAtual()));
+    }
+
+    default AlteracoesProdutos buscarAlteracoes(long desde, int tamanho){
+        throw naoSuportado("a sincronização incremental");
+    }
+
+    default List<Produto> buscarPorTermo(String termo, String padrao, double precoMinimo, double precoMaximo,
+                                         int estoqueMinimo, int tamanho, long deslocamento){
+        throw naoSuportado("a busca por termo");
+    }
+
+    default List<Map<String, Object>> buscarCamposPorTermo(List<String> campos, String termo, String padrao,
+                                                           double precoMinimo, double precoMaximo, int estoqueMinimo,
+                                                           int tamanho, long deslocamento){
+        throw naoSuportado("a busca por termo");
+    }
+
+    static UnsupportedOperationException naoSuportado(String recurso){
+        return new UnsupportedOperationException("Este armazenamento não suporta " + recurso + "; use produtos.armazenamento=jpa");
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.AlteracoesProdutos;
+import com.example.apiestoque2.models.Produto;
+import com.example.apiestoque2.repository.ProdutoRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+@Component
+@ConditionalOnProperty(name = "produtos.armazenamento", havingValue = "jpa", matchIfMissing = true)
+public class ArmazenamentoProdutosJpa implements ArmazenamentoProdutos {
+    // IDs por comando IN; com in_clause_parameter_padding o Hibernate reaproveita o mesmo plano
+    private static final int TAMANHO_BLOCO_IDS = 1000;
+
+    private final ProdutoRepository produtoRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public ArmazenamentoProdutosJpa(ProdutoRepository produtoRepository){
+        this.produtoRepository = produtoRepository;
+    }
+
+    @Override
+    public Optional<Produto> buscarPorId(long id) {
+        return produtoRepository.findById(id);
+    }
+
+    // cada bloco em sua propria transacao de leitura
+    @Override
+    public List<Produto> buscarPorIds(Collection<Long> ids) {
+        List<Long> lista = new ArrayList<>(ids);
+        List<Produto> produtos = new ArrayList<>(lista.size());
+        for(int inicio = 0; inicio < lista.size(); inicio += TAMANHO_BLOCO_IDS){
+            produtos.addAll(produtoRepository.findAllById(lista.subList(inicio, Math.min(inicio + TAMANHO_BLOCO_IDS, lista.size()))));
+        }
+        return produtos;
+    }
+
+    @Override
+    public List<Produto> buscarTodos() {
+        return produtoRepository.findAll();
+    }
+
+    @Override
+    public List<Produto> buscarPagina(long cursor, int tamanho) {
+        return produtoRepository.findByIdGreaterThanOrderByIdAsc(cursor, Limit.of(tamanho));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportarTodos(Consumer<Produto> consumidor) {
+        try(Stream<Produto> produtos = produtoRepository.streamAllByOrderById()){
+            produtos.forEach(produto -> {
+                consumidor.accept(produto);
+                // libera a entidade do contexto para a memoria nao crescer com a tabela
+                entityManager.detach(produto);
+            });
+        }
+    }
+
+    @Override
+    public List<Produto> buscarPorNomeEPrecoMenorQue(String nome, double preco) {
+        return produtoRepository.findByNomeLikeIgnoreCaseAndPrecoLessThan(nome, preco);
+    }
+
+    @Override
+    public List<Map<String, Object>> listarCampos(List<String> campos, long cursor, Limit limite) {
+        return produtoRepository.listarCampos(campos, cursor, limite);
+    }
+
+    @Override
+    public List<Map<String, Object>> buscarCamposPorNomeEPrecoMenorQue(List<String> campos, String nome, double preco) {
+        return produtoRepository.buscarCamposPorNomeEPrecoMenorQue(campos, nome, preco);
+    }
+
+    @Override
+    public Produto salvar(Produto produto) {
+        return produtoRepository.save(produto);
+    }
+
+    @Override
+    public Optional<Produto> excluir(long id) {
+        return produtoRepository.excluirRetornando(id);
+    }
+
+    // todos os blocos na mesma transacao: ou a lista inteira e excluida ou nada
+    @Override
+    @Transactional
+    public List<Long> excluirTodos(List<Long> ids) {
+        List<Long> excluidos = new ArrayList<>();
+        for(int inicio = 0; inicio < ids.size(); inicio += TAMANHO_BLOCO_IDS){
+            excluidos.addAll(produtoRepository.excluirTodosRetornando(ids.subList(inicio, Math.min(inicio + TAMANHO_BLOCO_IDS, ids.size()))));
+        }
+        return excluidos;
+    }
+
+    @Override
+    public boolean adicionarEstoque(long id, int quantidade) {
+        return produtoRepository.adicionarEstoque(id, quantidade) == 1;
+    }
+
+    @Override
+    public boolean retirarEstoque(long id, int quantidade) {
+        return produtoRepository.retirarEstoque(id, quantidade) == 1;
+    }
+
+    // em ordem de ID para que reservas concorrentes travem as linhas sempre na mesma ordem (sem deadlock)
+    @Override
+    @Transactional
+    public void reservarEstoque(SortedMap<Long, Integer> quantidades) {
+        for(Map.Entry<Long, Integer> item : quantidades.entrySet()){
+            if(produtoRepository.retirarEstoque(item.getKey(), item.getValue()) == 0){
+                throw new EstoqueInsuficienteException(item.getKey());
+            }
+        }
+    }
+
+    @Override
+    public long buscarRevisaoAtual() {
+        return produtoRepository.buscarPosicaoConfirmada();
+    }
+
+    // REPEATABLE_READ: a versao e a leitura usam o mesmo snapshot na mesma conexao (e, com replicas, na mesma
+    // replica), entao o ETag descreve exatamente o corpo devolvido
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public <T> T lerComVersaoCatalogo(Function<String, T> leitura) {
+        return leitura.apply(produtoRepository.buscarVersaoSnapshot());
+    }
+
+    // REPEATABLE_READ: posicao confirmada, alterados e excluidos vem do mesmo snapshot. A pagina vai ate a posicao
+    // da alteracao numero tamanho e inclui todas as linhas dessa posicao (mesma transacao), entao pode passar de
+    // tamanho, mas nunca corta uma transacao ao meio
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public AlteracoesProdutos buscarAlteracoes(long desde, int tamanho) {
+        long confirmada = produtoRepository.buscarPosicaoConfirmada();
+        if(confirmada <= desde) return new AlteracoesProdutos(List.of(), List.of(), desde, false);
+        Optional<Long> limite = produtoRepository.buscarPosicaoNaOrdem(desde, confirmada, tamanho - 1);
+        boolean temMais = limite.isPresent() && limite.get() < confirmada;
+        long ate = temMais ? limite.get() : confirmada;
+        return new AlteracoesProdutos(produtoRepository.buscarAlterados(desde, ate), produtoRepository.buscarExcluidos(desde, ate), ate, temMais);
+    }
+
+    @Override
+    public List<Produto> buscarPorTermo(String termo, String padrao, double precoMinimo, double precoMaximo,
+                                        int estoqueMinimo, int tamanho, long deslocamento) {
+        return produtoRepository.buscarPorTermo(termo, padrao, precoMinimo, precoMaximo, estoqueMinimo, tamanho, deslocamento);
+    }
+
+    @Override
+    public List<Map<String, Object>> buscarCamposPorTermo(List<String> campos, String termo, String padrao,
+                                                          double precoMinimo, double precoMaximo, int estoqueMinimo,
+                                                          int tamanho, long deslocamento) {
+        return produtoRepository.buscarCamposPorTermo(campos, termo, padrao, precoMinimo, precoMaximo, estoqueMinimo, tamanho, deslocamento);
+    }
+}
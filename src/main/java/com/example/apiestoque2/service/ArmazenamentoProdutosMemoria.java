@@ -0,0 +1,556 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.Produto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+// Produtos em memoria, em colunas de tipos primitivos (sem um objeto por produto), para quem nao precisa do PostgreSQL.
+// As linhas sao acrescentadas em ordem crescente de ID, entao a coluna de IDs fica ordenada e a paginacao por cursor
+// e uma busca binaria. Travas: a de estrutura (escrita) para inserir, excluir, crescer e compactar; cada alteracao de
+// linha trava so a sua listra e as leituras de linha sao otimistas (StampedLock), sem bloquear.
+// Com produtos.memoria.diretorio as alteracoes vao para um journal mapeado em memoria e sobrevivem a reinicios
+@Component
+@ConditionalOnProperty(name = "produtos.armazenamento", havingValue = "memoria")
+public class ArmazenamentoProdutosMemoria implements ArmazenamentoProdutos, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ArmazenamentoProdutosMemoria.class);
+    private static final int LISTRAS = 64;
+    private static final int CAPACIDADE_INICIAL = 1024;
+    private static final int BLOCO_EXPORTACAO = 1000;
+
+    private final ReentrantReadWriteLock estrutura = new ReentrantReadWriteLock();
+    private final StampedLock[] listras = new StampedLock[LISTRAS];
+    private final AtomicLong revisao = new AtomicLong();
+    private final JournalProdutos journal;
+    private final long limiteJournal;
+
+    private final MapaLongInt indice = new MapaLongInt(CAPACIDADE_INICIAL);
+    private long[] ids = new long[CAPACIDADE_INICIAL];
+    private String[] nomes = new String[CAPACIDADE_INICIAL];
+    private String[] descricoes = new String[CAPACIDADE_INICIAL];
+    private double[] precos = new double[CAPACIDADE_INICIAL];
+    private int[] estoques = new int[CAPACIDADE_INICIAL];
+    private long[] revisoes = new long[CAPACIDADE_INICIAL];
+    private boolean[] excluidos = new boolean[CAPACIDADE_INICIAL];
+    private int linhas;
+    private int linhasExcluidas;
+    private long proximoId = 1;
+
+    public ArmazenamentoProdutosMemoria(@Value("${produtos.memoria.diretorio:}") String diretorio,
+                                        @Value("${produtos.memoria.journal-bytes:67108864}") int bytesJournal) throws IOException {
+        for(int i = 0; i < LISTRAS; i++) listras[i] = new StampedLock();
+        this.limiteJournal = bytesJournal;
+        if(diretorio.isBlank()){
+            this.journal = null;
+            return;
+        }
+
+        this.journal = new JournalProdutos(Path.of(diretorio), bytesJournal);
+        journal.ler(new JournalProdutos.Leitor() {
+            @Override
+            public void contadores(long proximoIdSnapshot, long revisaoSnapshot) {
+                proximoId = Math.max(proximoId, proximoIdSnapshot);
+                revisao.accumulateAndGet(revisaoSnapshot, Math::max);
+            }
+
+            @Override
+            public void gravacao(long id, long revisaoLinha, String nome, String descricao, double preco, int estoque) {
+                restaurar(id, revisaoLinha, nome, descricao, preco, estoque);
+            }
+
+            @Override
+            public void exclusao(long id, long revisaoLinha) {
+                int linha = indice.obter(id);
+                if(linha != MapaLongInt.AUSENTE) marcarExcluida(linha);
+                proximoId = Math.max(proximoId, id + 1);
+                revisao.accumulateAndGet(revisaoLinha, Math::max);
+            }
+        });
+        log.info("{} produtos restaurados de {}", indice.tamanho(), diretorio);
+    }
+
+    @Override
+    public Optional<Produto> buscarPorId(long id) {
+        estrutura.readLock().lock();
+        try{
+            int linha = indice.obter(id);
+            return linha == MapaLongInt.AUSENTE ? Optional.empty() : Optional.of(lerLinha(linha));
+        }finally{
+            estrutura.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Produto> buscarPorIds(Collection<Long> ids) {
+        List<Produto> produtos = new ArrayList<>(ids.size());
+        estrutura.readLock().lock();
+        try{
+            for(Long id : ids){
+                int linha = indice.obter(id);
+                if(linha != MapaLongInt.AUSENTE) produtos.add(lerLinha(linha));
+            }
+        }finally{
+            estrutura.readLock().unlock();
+        }
+        return produtos;
+    }
+
+    @Override
+    public List<Produto> buscarTodos() {
+        return buscarPagina(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Produto> buscarPagina(long cursor, int tamanho) {
+        List<Produto> produtos = new ArrayList<>(Math.min(tamanho, 1024));
+        estrutura.readLock().lock();
+        try{
+            for(int linha = primeiraLinhaApos(cursor); linha < linhas && produtos.size() < tamanho; linha++){
+                if(!excluidos[linha]) produtos.add(lerLinha(linha));
+            }
+        }finally{
+            estrutura.readLock().unlock();
+        }
+        return produtos;
+    }
+
+    // em blocos: a trava nao fica presa enquanto o consumidor escreve para um cliente lento
+    @Override
+    public void exportarTodos(Consumer<Produto> consumidor) {
+        long cursor = 0;
+        while(true){
+            List<Produto> bloco = buscarPagina(cursor, BLOCO_EXPORTACAO);
+            bloco.forEach(consumidor);
+            if(bloco.size() < BLOCO_EXPORTACAO) return;
+            cursor = bloco.get(bloco.size() - 1).getId();
+        }
+    }
+
+    // a coluna de precos e filtrada antes de montar e comparar o nome
+    @Override
+    public List<Produto> buscarPorNomeEPrecoMenorQue(String nome, double preco) {
+        Pattern padrao = padraoLike(nome);
+        List<Produto> produtos = new ArrayList<>();
+        estrutura.readLock().lock();
+        try{
+            for(int linha = 0; linha < linhas; linha++){
+                if(excluidos[linha] || !(precos[linha] < preco)) continue;
+                Produto produto = lerLinha(linha);
+                if(produto.getPreco() < preco && produto.getNome() != null && padrao.matcher(produto.getNome()).matches()){
+                    produtos.add(produto);
+                }
+            }
+        }finally{
+            estrutura.readLock().unlock();
+        }
+        return produtos;
+    }
+
+    @Override
+    public List<Map<String, Object>> listarCampos(List<String> campos, long cursor, Limit limite) {
+        return projetar(campos, buscarPagina(cursor, limite.isLimited() ? limite.max() : Integer.MAX_VALUE));
+    }
+
+    @Override
+    public List<Map<String, Object>> buscarCamposPorNomeEPrecoMenorQue(List<String> campos, String nome, double preco) {
+        return projetar(campos, buscarPorNomeEPrecoMenorQue(nome, preco));
+    }
+
+    // como no save do JPA: ID existente atualiza; zero ou ID desconhecido insere com um ID novo
+    @Override
+    public Produto salvar(Produto produto) {
+        estrutura.readLock().lock();
+        try{
+            int linha = produto.getId() > 0 ? indice.obter(produto.getId()) : MapaLongInt.AUSENTE;
+            if(linha != MapaLongInt.AUSENTE){
+                StampedLock listra = listra(linha);
+                long selo = listra.writeLock();
+                try{
+                    nomes[linha] = produto.getNome();
+                    descricoes[linha] = produto.getDescricao();
+                    precos[linha] = produto.getPreco();
+                    estoques[linha] = produto.getQuantidadeEstoque();
+                    revisoes[linha] = revisao.incrementAndGet();
+                    registrar(linha);
+                    return copiar(linha);
+                }finally{
+                    listra.unlockWrite(selo);
+                }
+            }
+        }finally{
+            estrutura.readLock().unlock();
+        }
+
+        estrutura.writeLock().lock();
+        try{
+            int linha = acrescentar(proximoId++, revisao.incrementAndGet(), produto.getNome(), produto.getDescricao(),
+                    produto.getPreco(), produto.getQuantidadeEstoque());
+            registrar(linha);
+            return copiar(linha);
+        }finally{
+            estrutura.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Produto> excluir(long id) {
+        estrutura.writeLock().lock();
+        try{
+            int linha = indice.obter(id);
+            if(linha == MapaLongInt.AUSENTE) return Optional.empty();
+            Produto excluido = copiar(linha);
+            registrarExclusao(id);
+            marcarExcluida(linha);
+            compactarSeNecessario();
+            return Optional.of(excluido);
+        }finally{
+            estrutura.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Long> excluirTodos(List<Long> ids) {
+        List<Long> excluidosAgora = new ArrayList<>();
+        estrutura.writeLock().lock();
+        try{
+            for(Long id : ids){
+                int linha = indice.obter(id);
+                if(linha == MapaLongInt.AUSENTE) continue;
+                registrarExclusao(id);
+                marcarExcluida(linha);
+                excluidosAgora.add(id);
+            }
+            compactarSeNecessario();
+        }finally{
+            estrutura.writeLock().unlock();
+        }
+        return excluidosAgora;
+    }
+
+    @Override
+    public boolean adicionarEstoque(long id, int quantidade) {
+        return alterarEstoque(id, quantidade);
+    }
+
+    @Override
+    public boolean retirarEstoque(long id, int quantidade) {
+        return alterarEstoque(id, -quantidade);
+    }
+
+    // trava as listras envolvidas em ordem crescente (sem deadlock entre reservas) e so altera se todas tiverem saldo
+    @Override
+    public void reservarEstoque(SortedMap<Long, Integer> quantidades) {
+        estrutura.readLock().lock();
+        try{
+            int[] linhasReserva = new int[quantidades.size()];
+            TreeSet<Integer> listrasReserva = new TreeSet<>();
+            int i = 0;
+            for(Long id : quantidades.keySet()){
+                int linha = indice.obter(id);
+                if(linha == MapaLongInt.AUSENTE) throw new EstoqueInsuficienteException(id);
+                linhasReserva[i++] = linha;
+                listrasReserva.add(linha & (LISTRAS - 1));
+            }
+
+            long[] selos = new long[LISTRAS];
+            for(int listra : listrasReserva) selos[listra] = listras[listra].writeLock();
+            try{
+                i = 0;
+                for(Map.Entry<Long, Integer> item : quantidades.entrySet()){
+                    if(estoques[linhasReserva[i++]] < item.getValue()) throw new EstoqueInsuficienteException(item.getKey());
+                }
+                i = 0;
+                for(Integer quantidade : quantidades.values()){
+                    int linha = linhasReserva[i++];
+                    estoques[linha] -= quantidade;
+                    revisoes[linha] = revisao.incrementAndGet();
+                    registrar(linha);
+                }
+            }finally{
+                for(int listra : listrasReserva.descendingSet()) listras[listra].unlockWrite(selos[listra]);
+            }
+        }finally{
+            estrutura.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long buscarRevisaoAtual() {
+        return revisao.get();
+    }
+
+    // junta as alteracoes do journal num snapshot quando ele passa do tamanho inicial
+    @Scheduled(fixedDelayString = "${produtos.memoria.intervalo-snapshot-ms:60000}")
+    public void gravarSnapshotSeNecessario(){
+        if(journal == null) return;
+        if(journal.tamanhoJournal() >= limiteJournal / 2) gravarSnapshot();
+        else journal.forcar();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if(journal == null) return;
+        gravarSnapshot();
+        journal.close();
+    }
+
+    // troca o journal e copia as linhas com a trava de estrutura so em leitura (alteracoes de linha continuam, cada
+    // linha e lida inteira pela sua listra); a serializacao e o fsync ficam fora de qualquer trava. O que mudar
+    // depois da troca vai para o journal novo e e reaplicado por cima do snapshot na subida
+    private synchronized void gravarSnapshot(){
+        long geracao;
+        long proximoIdSnapshot;
+        long revisaoSnapshot;
+        List<JournalProdutos.Linha> copia;
+        estrutura.readLock().lock();
+        try{
+            geracao = journal.iniciarSnapshot();
+            proximoIdSnapshot = proximoId;
+            revisaoSnapshot = revisao.get();
+            copia = new ArrayList<>(linhas - linhasExcluidas);
+            for(int linha = 0; linha < linhas; linha++){
+                if(!excluidos[linha]) copia.add(lerLinha(linha, this::copiarParaJournal));
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException("Falha ao trocar o journal de produtos", e);
+        }finally{
+            estrutura.readLock().unlock();
+        }
+
+        try{
+            journal.gravarSnapshot(geracao, proximoIdSnapshot, revisaoSnapshot, copia);
+        }catch(IOException e){
+            throw new UncheckedIOException("Falha ao gravar o snapshot de produtos", e);
+        }
+    }
+
+    private boolean alterarEstoque(long id, int delta) {
+        estrutura.readLock().lock();
+        try{
+            int linha = indice.obter(id);
+            if(linha == MapaLongInt.AUSENTE) return false;
+            StampedLock listra = listra(linha);
+            long selo = listra.writeLock();
+            try{
+                int novo = Math.addExact(estoques[linha], delta);
+                if(novo < 0) return false;
+                estoques[linha] = novo;
+                revisoes[linha] = revisao.incrementAndGet();
+                registrar(linha);
+                return true;
+            }finally{
+                listra.unlockWrite(selo);
+            }
+        }finally{
+            estrutura.readLock().unlock();
+        }
+    }
+
+    // chamado com a trava de estrutura (leitura ou escrita); repete com trava de leitura se houve escrita concorrente
+    private Produto lerLinha(int linha){
+        return lerLinha(linha, this::copiar);
+    }
+
+    private <T> T lerLinha(int linha, IntFunction<T> copia){
+        StampedLock listra = listra(linha);
+        long selo = listra.tryOptimisticRead();
+        T valor = copia.apply(linha);
+        if(!listra.validate(selo)){
+            selo = listra.readLock();
+            try{
+                valor = copia.apply(linha);
+            }finally{
+                listra.unlockRead(selo);
+            }
+        }
+        return valor;
+    }
+
+    private Produto copiar(int linha){
+        Produto produto = new Produto(ids[linha], nomes[linha], descricoes[linha], precos[linha], estoques[linha]);
+        produto.setRevisao(revisoes[linha]);
+        return produto;
+    }
+
+    private JournalProdutos.Linha copiarParaJournal(int linha){
+        return new JournalProdutos.Linha(ids[linha], revisoes[linha], nomes[linha], descricoes[linha], precos[linha], estoques[linha]);
+    }
+
+    private StampedLock listra(int linha){
+        return listras[linha & (LISTRAS - 1)];
+    }
+
+    // primeira linha com ID maior que o cursor
+    private int primeiraLinhaApos(long cursor){
+        int inicio = 0;
+        int fim = linhas;
+        while(inicio < fim){
+            int meio = (inicio + fim) >>> 1;
+            if(ids[meio] <= cursor) inicio = meio + 1;
+            else fim = meio;
+        }
+        return inicio;
+    }
+
+    // com a trava de estrutura em escrita
+    private int acrescentar(long id, long revisaoLinha, String nome, String descricao, double preco, int estoque){
+        if(linhas == ids.length) redimensionar(ids.length * 2);
+        int linha = linhas++;
+        ids[linha] = id;
+        nomes[linha] = nome;
+        descricoes[linha] = descricao;
+        precos[linha] = preco;
+        estoques[linha] = estoque;
+        revisoes[linha] = revisaoLinha;
+        excluidos[linha] = false;
+        indice.colocar(id, linha);
+        return linha;
+    }
+
+    // replay na subida: o snapshot vem em ordem de ID e o journal so insere IDs maiores que o ultimo da coluna
+    // (gravacao de um ID menor e de um produto excluido depois). O proximo ID nunca volta: IDs excluidos nao sao reusados
+    private void restaurar(long id, long revisaoLinha, String nome, String descricao, double preco, int estoque){
+        int linha = indice.obter(id);
+        if(linha == MapaLongInt.AUSENTE){
+            if(linhas == 0 || id > ids[linhas - 1]) acrescentar(id, revisaoLinha, nome, descricao, preco, estoque);
+            proximoId = Math.max(proximoId, id + 1);
+        }else{
+            nomes[linha] = nome;
+            descricoes[linha] = descricao;
+            precos[linha] = preco;
+            estoques[linha] = estoque;
+            revisoes[linha] = revisaoLinha;
+        }
+        revisao.accumulateAndGet(revisaoLinha, Math::max);
+    }
+
+    private void marcarExcluida(int linha){
+        indice.remover(ids[linha]);
+        excluidos[linha] = true;
+        nomes[linha] = null;
+        descricoes[linha] = null;
+        linhasExcluidas++;
+    }
+
+    private void compactarSeNecessario(){
+        if(linhasExcluidas > CAPACIDADE_INICIAL && linhasExcluidas * 2 > linhas) compactar();
+    }
+
+    // remove os buracos deixados pelas exclusoes mantendo a ordem de ID
+    private void compactar(){
+        if(linhasExcluidas == 0) return;
+        int destino = 0;
+        for(int linha = 0; linha < linhas; linha++){
+            if(excluidos[linha]) continue;
+            ids[destino] = ids[linha];
+            nomes[destino] = nomes[linha];
+            descricoes[destino] = descricoes[linha];
+            precos[destino] = precos[linha];
+            estoques[destino] = estoques[linha];
+            revisoes[destino] = revisoes[linha];
+            excluidos[destino] = false;
+            destino++;
+        }
+        Arrays.fill(nomes, destino, linhas, null);
+        Arrays.fill(descricoes, destino, linhas, null);
+        linhas = destino;
+        linhasExcluidas = 0;
+        indice.limpar();
+        for(int linha = 0; linha < linhas; linha++) indice.colocar(ids[linha], linha);
+        if(linhas > CAPACIDADE_INICIAL && linhas * 4 < ids.length) redimensionar(Math.max(CAPACIDADE_INICIAL, linhas * 2));
+    }
+
+    private void redimensionar(int capacidade){
+        ids = Arrays.copyOf(ids, capacidade);
+        nomes = Arrays.copyOf(nomes, capacidade);
+        descricoes = Arrays.copyOf(descricoes, capacidade);
+        precos = Arrays.copyOf(precos, capacidade);
+        estoques = Arrays.copyOf(estoques, capacidade);
+        revisoes = Arrays.copyOf(revisoes, capacidade);
+        excluidos = Arrays.copyOf(excluidos, capacidade);
+    }
+
+    // com a listra da linha travada, para o journal ter as alteracoes de cada produto na ordem em que aconteceram
+    private void registrar(int linha){
+        if(journal == null) return;
+        try{
+            journal.gravar(ids[linha], revisoes[linha], nomes[linha], descricoes[linha], precos[linha], estoques[linha]);
+        }catch(IOException e){
+            throw new UncheckedIOException("Falha ao gravar o journal de produtos", e);
+        }
+    }
+
+    // a exclusao tambem avanca a revisao, para o ETag do catalogo mudar
+    private void registrarExclusao(long id){
+        long revisaoExclusao = revisao.incrementAndGet();
+        if(journal == null) return;
+        try{
+            journal.gravarExclusao(id, revisaoExclusao);
+        }catch(IOException e){
+            throw new UncheckedIOException("Falha ao gravar o journal de produtos", e);
+        }
+    }
+
+    private static List<Map<String, Object>> projetar(List<String> campos, List<Produto> produtos){
+        List<Map<String, Object>> projetados = new ArrayList<>(produtos.size());
+        for(Produto produto : produtos){
+            Map<String, Object> valores = new LinkedHashMap<>();
+            for(String campo : campos){
+                valores.put(campo, switch(campo){
+                    case "id" -> produto.getId();
+                    case "nome" -> produto.getNome();
+                    case "descricao" -> produto.getDescricao();
+                    case "preco" -> produto.getPreco();
+                    case "quantidadeEstoque" -> produto.getQuantidadeEstoque();
+                    case "revisao" -> produto.getRevisao();
+                    default -> throw new IllegalArgumentException("campo desconhecido: " + campo);
+                });
+            }
+            projetados.add(valores);
+        }
+        return projetados;
+    }
+
+    // LIKE sem diferenciar maiusculas: % qualquer sequencia, _ um caractere, o resto literal
+    private static Pattern padraoLike(String like){
+        StringBuilder regex = new StringBuilder(like.length() + 8);
+        StringBuilder literal = new StringBuilder();
+        for(char c : like.toCharArray()){
+            if(c == '%' || c == '_'){
+                if(!literal.isEmpty()){
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            }else{
+                literal.append(c);
+            }
+        }
+        if(!literal.isEmpty()) regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+}
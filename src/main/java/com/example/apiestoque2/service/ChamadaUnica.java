@@ -0,0 +1,90 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.config.SobrecargaException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+// Single-flight: chamadas concorrentes com a mesma chave esperam a que ja esta em andamento em vez de ocupar
+// outra conexao para a mesma consulta. Quem chegou depois recebe uma copia do resultado (ou a mesma excecao)
+// e espera no maximo esperaMaxima; depois disso responde como sobrecarga em vez de consultar por conta propria
+final class ChamadaUnica<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> emAndamento = new ConcurrentHashMap<>();
+    private final UnaryOperator<V> copia;
+    private final long esperaMaximaNanos;
+    private final Counter executadas;
+    private final Counter compartilhadas;
+    private final Counter expiradas;
+
+    ChamadaUnica(String operacao, UnaryOperator<V> copia, Duration esperaMaxima, MeterRegistry registry){
+        this.copia = copia;
+        this.esperaMaximaNanos = esperaMaxima.toNanos();
+        this.executadas = contador(registry, operacao, "executada");
+        this.compartilhadas = contador(registry, operacao, "compartilhada");
+        this.expiradas = contador(registry, operacao, "expirada");
+    }
+
+    V executar(K chave, Supplier<V> busca){
+        CompletableFuture<V> minha = new CompletableFuture<>();
+        CompletableFuture<V> existente = emAndamento.putIfAbsent(chave, minha);
+        if(existente == null) return executarComoLider(chave, minha, busca);
+
+        compartilhadas.increment();
+        try{
+            V valor = existente.get(esperaMaximaNanos, TimeUnit.NANOSECONDS);
+            return valor == null ? null : copia.apply(valor);
+        }catch(ExecutionException ee){
+            Throwable causa = ee.getCause();
+            if(causa instanceof RuntimeException re) throw re;
+            if(causa instanceof Error e) throw e;
+            throw new IllegalStateException(causa);
+        }catch(TimeoutException | CancellationException e){
+            expiradas.increment();
+            throw new SobrecargaException("tempo esgotado esperando a consulta em andamento");
+        }catch(InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new SobrecargaException("interrompido esperando a consulta em andamento");
+        }
+    }
+
+    // depois de uma escrita: quem chegar agora faz uma consulta nova em vez de receber um resultado anterior a ela
+    void esquecer(K chave){
+        emAndamento.remove(chave);
+    }
+
+    void esquecerTodas(){
+        emAndamento.clear();
+    }
+
+    private V executarComoLider(K chave, CompletableFuture<V> minha, Supplier<V> busca){
+        executadas.increment();
+        try{
+            V valor = busca.get();
+            // os outros copiam de uma copia propria: quem chamou pode alterar o valor retornado
+            minha.complete(valor == null ? null : copia.apply(valor));
+            return valor;
+        }catch(RuntimeException | Error e){
+            minha.completeExceptionally(e);
+            throw e;
+        }finally{
+            emAndamento.remove(chave, minha);
+        }
+    }
+
+    private static Counter contador(MeterRegistry registry, String operacao, String resultado){
+        return Counter.builder("produto.chamada-unica")
+                .description("Consultas executadas e compartilhadas entre chamadas concorrentes iguais")
+                .tag("operacao", operacao)
+                .tag("resultado", resultado)
+                .register(registry);
+    }
+}
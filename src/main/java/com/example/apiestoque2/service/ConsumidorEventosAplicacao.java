@@ -0,0 +1,24 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.EventoProduto;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// assinantes dentro da aplicacao: qualquer @EventListener de EventoProduto
+@Component
+public class ConsumidorEventosAplicacao implements ConsumidorEventosProduto {
+    private final ApplicationEventPublisher publisher;
+
+    public ConsumidorEventosAplicacao(ApplicationEventPublisher publisher){
+        this.publisher = publisher;
+    }
+
+    @Override
+    public void publicar(List<EventoProduto> eventos) {
+        for(EventoProduto evento : eventos){
+            publisher.publishEvent(evento);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.EventoProduto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// grava os eventos em um arquivo NDJSON (produtos.eventos.arquivo), util em testes e para reprocessar
+@Component
+@ConditionalOnProperty(name = "produtos.eventos.arquivo")
+public class ConsumidorEventosArquivo implements ConsumidorEventosProduto {
+    private final Path arquivo;
+    private final ObjectMapper objectMapper;
+
+    public ConsumidorEventosArquivo(@Value("${produtos.eventos.arquivo}") Path arquivo, ObjectMapper objectMapper){
+        this.arquivo = arquivo;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public synchronized void publicar(List<EventoProduto> eventos) {
+        try(Writer escritor = Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)){
+            for(EventoProduto evento : eventos){
+                escritor.write(objectMapper.writeValueAsString(evento));
+                escritor.write('\n');
+            }
+        }catch(IOException ioe){
+            throw new UncheckedIOException(ioe);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.EventoProduto;
+
+import java.util.List;
+
+// Destino dos eventos do outbox. Uma excecao faz o lote inteiro ser entregue de novo no proximo ciclo.
+public interface ConsumidorEventosProduto {
+    void publicar(List<EventoProduto> eventos);
+}
@@ -0,0 +1,101 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.EventoProduto;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// envia os eventos a quem estiver conectado em GET /api/produtos/eventos (sem replay ao reconectar).
+// publicar so enfileira: cada conexao tem uma fila limitada e envia numa thread propria, entao um cliente lento
+// nao atrasa o relay nem os outros. Fila cheia desconecta o cliente, que retoma por /alteracoes
+@Component
+public class ConsumidorEventosSse implements ConsumidorEventosProduto, DisposableBean {
+    private final List<Assinante> assinantes = new CopyOnWriteArrayList<>();
+    private final ExecutorService envio = Executors.newCachedThreadPool(tarefa -> {
+        Thread thread = new Thread(tarefa, "eventos-sse");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final int filaMaxima;
+
+    public ConsumidorEventosSse(@Value("${produtos.eventos.sse.fila-maxima:1000}") int filaMaxima){
+        this.filaMaxima = filaMaxima;
+    }
+
+    public SseEmitter conectar(){
+        SseEmitter emitter = new SseEmitter();
+        Assinante assinante = new Assinante(emitter, filaMaxima);
+        emitter.onCompletion(() -> assinantes.remove(assinante));
+        emitter.onTimeout(() -> assinantes.remove(assinante));
+        emitter.onError(erro -> assinantes.remove(assinante));
+        assinantes.add(assinante);
+        return emitter;
+    }
+
+    @Override
+    public void publicar(List<EventoProduto> eventos) {
+        assinantes:
+        for(Assinante assinante : assinantes){
+            for(EventoProduto evento : eventos){
+                if(!assinante.fila.offer(evento)){
+                    desconectar(assinante, new IllegalStateException("cliente SSE não acompanhou os eventos"));
+                    continue assinantes;
+                }
+            }
+            if(assinante.enviando.compareAndSet(false, true)) envio.execute(() -> enviar(assinante));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        envio.shutdownNow();
+    }
+
+    // drena a fila; quem enfileirar depois do fim da drenagem agenda outra
+    private void enviar(Assinante assinante){
+        do{
+            try{
+                EventoProduto evento;
+                while((evento = assinante.fila.poll()) != null){
+                    assinante.emitter.send(SseEmitter.event()
+                            .id(String.valueOf(evento.getId()))
+                            .name(evento.getTipo())
+                            .data(evento));
+                }
+            }catch(IOException | IllegalStateException erro){
+                // cliente desconectado: nao deve impedir a entrega aos demais
+                desconectar(assinante, erro);
+                return;
+            }finally{
+                assinante.enviando.set(false);
+            }
+        }while(!assinante.fila.isEmpty() && assinante.enviando.compareAndSet(false, true));
+    }
+
+    private void desconectar(Assinante assinante, Throwable erro){
+        if(!assinantes.remove(assinante)) return;
+        assinante.fila.clear();
+        assinante.emitter.completeWithError(erro);
+    }
+
+    private static final class Assinante {
+        private final SseEmitter emitter;
+        private final BlockingQueue<EventoProduto> fila;
+        private final AtomicBoolean enviando = new AtomicBoolean();
+
+        private Assinante(SseEmitter emitter, int filaMaxima){
+            this.emitter = emitter;
+            this.fila = new ArrayBlockingQueue<>(filaMaxima);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.apiestoque2.service;
+
+public class EstoqueInsuficienteException extends RuntimeException {
+    private final long id;
+
+    public EstoqueInsuficienteException(long id){
+        super("Estoque insuficiente ou produto inexistente: " + id);
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,452 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.config.SobrecargaException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// Write-behind para ajustes de estoque: as entradas e as retiradas de cada produto se acumulam em memoria (LongAdder
+// por id e sentido) e vao ao banco como no maximo dois UPDATEs por produto a cada intervalo ou quando o segmento
+// fica grande.
+// Cada ajuste e gravado antes num journal do segmento; journals que sobram de uma queda sao reaplicados
+// na subida. O numero do segmento aplicado fica em produto_estoque_lote na mesma transacao dos UPDATEs,
+// entao um journal que ja foi aplicado nao e aplicado de novo. O numero so e unico dentro da instancia: cada uma
+// grava um id proprio (arquivo "instancia" no diretorio do journal) e registra os segmentos com ele.
+// Cada ajuste recebe o resultado do seu produto e sentido: as entradas entram primeiro (so um total que estouraria o
+// int e descartado) e as retiradas depois, so se o saldo cobrir o total delas; o futuro de um ajuste descartado
+// falha com EstoqueInsuficienteException. Uma retirada sem saldo nao leva junto a reposicao do mesmo segmento. Um segmento que falha por outro motivo que nao o banco
+// fora do ar e tentado ate tentativas-maximas vezes e depois vai para a quarentena (journal movido para quarentena/,
+// futuros falham), para nao segurar os segmentos seguintes.
+@Service
+@ConditionalOnProperty(name = "produtos.estoque.write-behind.habilitado", havingValue = "true")
+public class EstoqueWriteBehind implements SmartInitializingSingleton, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(EstoqueWriteBehind.class);
+    private static final int TAMANHO_REGISTRO = Long.BYTES + Integer.BYTES;
+    private static final String PREFIXO_JOURNAL = "estoque-";
+    private static final String SUFIXO_JOURNAL = ".journal";
+    private static final long SEGMENTOS_REGISTRADOS = 1000;
+    private static final String QUARENTENA = "quarentena";
+    private static final String ARQUIVO_INSTANCIA = "instancia";
+    // journals de antes de V8__estoque_lote_por_instancia.sql, registrados sem instancia
+    private static final UUID INSTANCIA_ANTERIOR = new UUID(0, 0);
+    // segmentos de instancias que nao voltaram (diretorio perdido) deixam de ser guardados depois disso
+    private static final int DIAS_REGISTRO_OUTRAS_INSTANCIAS = 30;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ProdutoService produtoService;
+    private final AgregacaoEstoque agregacao;
+    private final Path diretorio;
+    private final int limiteProdutos;
+    private final boolean fsync;
+    private final long esperaSincronaMs;
+    private final int tentativasMaximas;
+    private final AtomicInteger segmentosPendentes = new AtomicInteger();
+    private final Counter ajustesRejeitados;
+    private final Counter segmentosEmQuarentena;
+
+    // leitura: quem registra ajustes; escrita: a troca de segmento
+    private final ReentrantReadWriteLock troca = new ReentrantReadWriteLock();
+    private final ExecutorService descarga = Executors.newSingleThreadExecutor(r -> new Thread(r, "estoque-write-behind"));
+    // segmentos fechados que ainda nao foram gravados no banco, em ordem
+    private final Deque<Segmento> aguardandoBanco = new ArrayDeque<>();
+    private volatile Segmento atual;
+    private UUID instancia;
+
+    public EstoqueWriteBehind(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                              ProdutoService produtoService, AgregacaoEstoque agregacao, MeterRegistry registry,
+                              @Value("${produtos.estoque.write-behind.diretorio:journal-estoque}") Path diretorio,
+                              @Value("${produtos.estoque.write-behind.limite-produtos:1000}") int limiteProdutos,
+                              @Value("${produtos.estoque.write-behind.fsync:false}") boolean fsync,
+                              @Value("${produtos.estoque.write-behind.espera-sincrona-ms:5000}") long esperaSincronaMs,
+                              @Value("${produtos.estoque.write-behind.tentativas-maximas:5}") int tentativasMaximas){
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.produtoService = produtoService;
+        this.agregacao = agregacao;
+        this.diretorio = diretorio;
+        this.limiteProdutos = limiteProdutos;
+        this.fsync = fsync;
+        this.esperaSincronaMs = esperaSincronaMs;
+        this.tentativasMaximas = tentativasMaximas;
+        Gauge.builder("produto.estoque.write-behind.pendentes", segmentosPendentes, AtomicInteger::get)
+                .description("Segmentos fechados aguardando gravacao no banco")
+                .register(registry);
+        this.ajustesRejeitados = Counter.builder("produto.estoque.write-behind.rejeitados")
+                .description("Totais de estoque descartados por saldo insuficiente, produto inexistente ou estouro")
+                .register(registry);
+        this.segmentosEmQuarentena = Counter.builder("produto.estoque.write-behind.quarentena")
+                .description("Segmentos movidos para a quarentena depois de esgotar as tentativas")
+                .register(registry);
+    }
+
+    // roda depois das migracoes e antes do servidor aceitar requisicoes
+    @Override
+    public void afterSingletonsInstantiated() {
+        try{
+            Files.createDirectories(diretorio);
+            Path arquivoInstancia = diretorio.resolve(ARQUIVO_INSTANCIA);
+            // sem o arquivo, os journals que ja estao no diretorio sao de antes do id por instancia
+            UUID instanciaDosJournais = Files.exists(arquivoInstancia) ? null : INSTANCIA_ANTERIOR;
+            instancia = lerOuCriarInstancia(arquivoInstancia);
+            if(instanciaDosJournais == null) instanciaDosJournais = instancia;
+
+            long ultimoSegmento = jdbcTemplate.queryForObject(
+                    "SELECT COALESCE(MAX(segmento), 0) FROM produto_estoque_lote WHERE instancia = ?", Long.class, instancia);
+            for(Path journal : journalsExistentes(diretorio.resolve(QUARENTENA))){
+                ultimoSegmento = Math.max(ultimoSegmento, numeroDoJournal(journal));
+            }
+            for(Path journal : journalsExistentes(diretorio)){
+                Segmento segmento = Segmento.ler(instanciaDosJournais, numeroDoJournal(journal), journal);
+                ultimoSegmento = Math.max(ultimoSegmento, segmento.numero);
+                aguardandoBanco.addLast(segmento);
+            }
+            if(!aguardandoBanco.isEmpty()) log.info("Reaplicando {} journal(s) de estoque", aguardandoBanco.size());
+            segmentosPendentes.set(aguardandoBanco.size());
+            atual = new Segmento(instancia, ultimoSegmento + 1, diretorio);
+        }catch(IOException ioe){
+            throw new UncheckedIOException(ioe);
+        }
+        descarregar();
+    }
+
+    public CompletableFuture<Void> ajustar(long id, int delta){
+        Segmento segmento;
+        troca.readLock().lock();
+        try{
+            segmento = atual;
+            segmento.registrar(id, delta, fsync);
+        }finally{
+            troca.readLock().unlock();
+        }
+        if(segmento.tamanho() >= limiteProdutos && segmento.descargaPedida.compareAndSet(false, true)){
+            descarga.execute(this::descarregar);
+        }
+        return segmento.concluido.thenAccept(recusados -> {
+            if((delta < 0 ? recusados.retiradas() : recusados.entradas()).contains(id)) throw new EstoqueInsuficienteException(id);
+        });
+    }
+
+    // espera o UPDATE do segmento ser confirmado no banco; EstoqueInsuficienteException se o total do produto
+    // no sentido do ajuste foi descartado
+    public void ajustarSincrono(long id, int delta){
+        try{
+            ajustar(id, delta).get(esperaSincronaMs, TimeUnit.MILLISECONDS);
+        }catch(InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Espera pela gravação do estoque interrompida", ie);
+        }catch(ExecutionException ee){
+            if(ee.getCause() instanceof EstoqueInsuficienteException eie) throw eie;
+            throw new RuntimeException("Ajuste de estoque não gravado no banco", ee.getCause());
+        }catch(TimeoutException te){
+            throw new RuntimeException("Estoque registrado no journal, mas ainda não gravado no banco", te);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${produtos.estoque.write-behind.intervalo-ms:200}")
+    public synchronized void descarregar(){
+        if(atual == null) return;
+
+        Segmento cheio = null;
+        troca.writeLock().lock();
+        try{
+            if(!atual.vazio()){
+                cheio = atual;
+                atual = new Segmento(instancia, cheio.numero + 1, diretorio);
+            }
+        }catch(IOException ioe){
+            log.error("Falha ao abrir novo journal de estoque", ioe);
+            return;
+        }finally{
+            troca.writeLock().unlock();
+        }
+        if(cheio != null){
+            cheio.fecharJournal();
+            aguardandoBanco.addLast(cheio);
+        }
+
+        // em ordem: se um segmento falhar, os seguintes esperam a proxima tentativa
+        try{
+            while(!aguardandoBanco.isEmpty()){
+                Segmento segmento = aguardandoBanco.peekFirst();
+                Recusados recusados;
+                try{
+                    recusados = aplicar(segmento);
+                }catch(RuntimeException re){
+                    if(bancoIndisponivel(re)){
+                        log.warn("Banco indisponível ao gravar o segmento {} de estoque, nova tentativa no próximo ciclo", segmento.numero, re);
+                        return;
+                    }
+                    if(++segmento.tentativas < tentativasMaximas){
+                        log.warn("Falha ao gravar o segmento {} de estoque (tentativa {} de {})",
+                                segmento.numero, segmento.tentativas, tentativasMaximas, re);
+                        return;
+                    }
+                    aguardandoBanco.removeFirst();
+                    colocarEmQuarentena(segmento, re);
+                    continue;
+                }
+                aguardandoBanco.removeFirst();
+                segmento.apagarJournal();
+                segmento.concluido.complete(recusados);
+            }
+        }finally{
+            segmentosPendentes.set(aguardandoBanco.size());
+        }
+    }
+
+    // devolve os IDs cujo total de entradas ou de retiradas foi descartado
+    private Recusados aplicar(Segmento segmento){
+        // ordenado por id para travar as linhas sempre na mesma ordem
+        Map<Long, Ajustes> totais = new TreeMap<>();
+        segmento.ajustes.forEach((id, ajustes) -> {
+            if(!ajustes.vazio()) totais.put(id, ajustes);
+        });
+
+        Recusados recusados = transactionTemplate.execute(status -> {
+            Integer aplicado = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM produto_estoque_lote WHERE instancia = ? AND segmento = ?",
+                    Integer.class, segmento.instancia, segmento.numero);
+            // null: esta instancia ja tinha gravado o segmento antes de uma queda
+            if(aplicado != null && aplicado > 0) return null;
+
+            // entrada e retirada do mesmo produto em seguida, no mesmo lote: a linha ja esta travada pela entrada.
+            // A entrada so e limitada pelo int da coluna; a retirada tambem por zero
+            List<Object[]> parametros = new ArrayList<>(totais.size() * 2);
+            List<Long> ids = new ArrayList<>(totais.size() * 2);
+            totais.forEach((id, ajustes) -> {
+                long entrada = ajustes.entradas.sum();
+                long retirada = ajustes.retiradas.sum();
+                if(entrada != 0){
+                    parametros.add(new Object[]{entrada, id, entrada, (long) Integer.MIN_VALUE});
+                    ids.add(id);
+                }
+                if(retirada != 0){
+                    parametros.add(new Object[]{retirada, id, retirada, 0L});
+                    ids.add(id);
+                }
+            });
+            // a soma em bigint: um total que estouraria o int da coluna nao casa, em vez de derrubar o lote inteiro
+            int[] alterados = jdbcTemplate.batchUpdate(
+                    "UPDATE produto SET quantidadeestoque = quantidadeestoque + ? " +
+                            "WHERE id = ? AND quantidadeestoque::bigint + ? BETWEEN ? AND " + Integer.MAX_VALUE,
+                    parametros);
+            Set<Long> entradas = new HashSet<>();
+            Set<Long> retiradas = new HashSet<>();
+            for(int i = 0; i < alterados.length; i++){
+                if(alterados[i] == 0){
+                    long total = (Long) parametros.get(i)[0];
+                    log.warn("Ajuste de estoque {} descartado para o produto {}: estoque insuficiente, produto inexistente ou estouro",
+                            total, ids.get(i));
+                    (total < 0 ? retiradas : entradas).add(ids.get(i));
+                }
+            }
+
+            jdbcTemplate.update("INSERT INTO produto_estoque_lote (instancia, segmento) VALUES (?, ?)",
+                    segmento.instancia, segmento.numero);
+            jdbcTemplate.update("DELETE FROM produto_estoque_lote WHERE (instancia = ? AND segmento < ?) " +
+                            "OR (instancia <> ? AND aplicado_em < now() - make_interval(days => ?))",
+                    segmento.instancia, segmento.numero - SEGMENTOS_REGISTRADOS, segmento.instancia, DIAS_REGISTRO_OUTRAS_INSTANCIAS);
+            return new Recusados(entradas, retiradas);
+        });
+        produtoService.invalidarCache(totais.keySet());
+        if(recusados == null) return Recusados.NENHUM;
+
+        ajustesRejeitados.increment(recusados.entradas().size() + recusados.retiradas().size());
+        // o que foi gravado e a diferenca entre dois valores da coluna, entao cabe no int
+        totais.forEach((id, ajustes) -> {
+            long gravado = (recusados.entradas().contains(id) ? 0 : ajustes.entradas.sum())
+                    + (recusados.retiradas().contains(id) ? 0 : ajustes.retiradas.sum());
+            if(gravado != 0) agregacao.ajustarEstoque(id, (int) gravado);
+        });
+        return recusados;
+    }
+
+    // o journal fica em quarentena/ para analise e reaplicacao manual; quem espera o segmento recebe a falha
+    private void colocarEmQuarentena(Segmento segmento, RuntimeException causa){
+        log.error("Segmento {} de estoque em quarentena depois de {} tentativas", segmento.numero, segmento.tentativas, causa);
+        segmentosEmQuarentena.increment();
+        try{
+            Path quarentena = Files.createDirectories(diretorio.resolve(QUARENTENA));
+            Files.move(segmento.arquivo, quarentena.resolve(segmento.arquivo.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }catch(IOException ioe){
+            log.error("Falha ao mover o journal {} para a quarentena", segmento.arquivo, ioe);
+        }
+        segmento.concluido.completeExceptionally(
+                new IllegalStateException("Segmento " + segmento.numero + " de estoque em quarentena", causa));
+    }
+
+    // banco fora do ar ou pool esgotado: espera sem contar tentativa, o segmento nao tem culpa
+    private static boolean bancoIndisponivel(RuntimeException erro){
+        return erro instanceof CannotCreateTransactionException
+                || erro instanceof DataAccessResourceFailureException
+                || erro instanceof TransientDataAccessException
+                || SobrecargaException.isSobrecarga(erro);
+    }
+
+    @Override
+    public void destroy() {
+        descarga.shutdown();
+        descarregar();
+        if(atual != null) atual.fecharJournal();
+    }
+
+    // gravado uma vez por diretorio (temporario + move, para nunca ficar meio escrito)
+    private static UUID lerOuCriarInstancia(Path arquivo) throws IOException {
+        if(Files.exists(arquivo)) return UUID.fromString(Files.readString(arquivo).trim());
+        UUID nova = UUID.randomUUID();
+        Path temporario = arquivo.resolveSibling(ARQUIVO_INSTANCIA + ".tmp");
+        Files.writeString(temporario, nova.toString());
+        Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return nova;
+    }
+
+    private static List<Path> journalsExistentes(Path diretorio) throws IOException {
+        if(!Files.isDirectory(diretorio)) return List.of();
+        try(Stream<Path> arquivos = Files.list(diretorio)){
+            return arquivos
+                    .filter(arquivo -> arquivo.getFileName().toString().startsWith(PREFIXO_JOURNAL))
+                    .filter(arquivo -> arquivo.getFileName().toString().endsWith(SUFIXO_JOURNAL))
+                    .sorted((a, b) -> Long.compare(numeroDoJournal(a), numeroDoJournal(b)))
+                    .toList();
+        }
+    }
+
+    private static long numeroDoJournal(Path journal){
+        String nome = journal.getFileName().toString();
+        return Long.parseLong(nome.substring(PREFIXO_JOURNAL.length(), nome.length() - SUFIXO_JOURNAL.length()));
+    }
+
+    private static class Segmento {
+        private final UUID instancia;
+        private final long numero;
+        private final Path arquivo;
+        private final FileChannel canal;
+        private final ConcurrentHashMap<Long, Ajustes> ajustes = new ConcurrentHashMap<>();
+        private final CompletableFuture<Recusados> concluido = new CompletableFuture<>();
+        private final AtomicBoolean descargaPedida = new AtomicBoolean();
+        private int tentativas;
+
+        private Segmento(UUID instancia, long numero, Path diretorio) throws IOException {
+            this(instancia, numero, diretorio.resolve(PREFIXO_JOURNAL + numero + SUFIXO_JOURNAL), true);
+        }
+
+        private Segmento(UUID instancia, long numero, Path arquivo, boolean abrir) throws IOException {
+            this.instancia = instancia;
+            this.numero = numero;
+            this.arquivo = arquivo;
+            this.canal = abrir ? FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND) : null;
+        }
+
+        // registro de tamanho fixo: id (long) + delta (int); um registro incompleto no fim e ignorado
+        private static Segmento ler(UUID instancia, long numero, Path arquivo) throws IOException {
+            Segmento segmento = new Segmento(instancia, numero, arquivo, false);
+            ByteBuffer conteudo = ByteBuffer.wrap(Files.readAllBytes(arquivo));
+            while(conteudo.remaining() >= TAMANHO_REGISTRO){
+                segmento.somar(conteudo.getLong(), conteudo.getInt());
+            }
+            return segmento;
+        }
+
+        private void registrar(long id, int delta, boolean fsync){
+            ByteBuffer registro = ByteBuffer.allocate(TAMANHO_REGISTRO).putLong(id).putInt(delta).flip();
+            try{
+                // FileChannel serializa escritas em modo APPEND, entao registros de threads diferentes nao se misturam
+                canal.write(registro);
+                if(fsync) canal.force(false);
+            }catch(IOException ioe){
+                throw new UncheckedIOException(ioe);
+            }
+            somar(id, delta);
+        }
+
+        private void somar(long id, int delta){
+            Ajustes doProduto = ajustes.computeIfAbsent(id, chave -> new Ajustes());
+            (delta < 0 ? doProduto.retiradas : doProduto.entradas).add(delta);
+        }
+
+        private int tamanho(){
+            return ajustes.size();
+        }
+
+        private boolean vazio(){
+            return ajustes.isEmpty();
+        }
+
+        private void fecharJournal(){
+            if(canal == null) return;
+            try{
+                canal.force(false);
+                canal.close();
+            }catch(IOException ioe){
+                log.warn("Falha ao fechar o journal {}", arquivo, ioe);
+            }
+        }
+
+        private void apagarJournal(){
+            try{
+                Files.deleteIfExists(arquivo);
+            }catch(IOException ioe){
+                log.warn("Falha ao apagar o journal {}", arquivo, ioe);
+            }
+        }
+    }
+
+    private static class Ajustes {
+        private final LongAdder entradas = new LongAdder();
+        private final LongAdder retiradas = new LongAdder();
+
+        private boolean vazio(){
+            return entradas.sum() == 0 && retiradas.sum() == 0;
+        }
+    }
+
+    // IDs cujo total de entradas ou de retiradas foi descartado
+    private record Recusados(Set<Long> entradas, Set<Long> retiradas) {
+        private static final Recusados NENHUM = new Recusados(Set.of(), Set.of());
+    }
+}
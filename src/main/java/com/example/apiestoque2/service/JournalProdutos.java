@@ -0,0 +1,261 @@
+package com.example.apiestoque2.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+// Persistencia do ArmazenamentoProdutosMemoria: um snapshot com todos os produtos e um journal em arquivo
+// mapeado em memoria com cada alteracao posterior (estado completo da linha, entao reaplicar e idempotente).
+// Sao dois arquivos de journal que se alternam por geracao: o snapshot comeca trocando o journal ativo e copia as
+// linhas depois da troca, entao um snapshot da geracao g cobre tudo que foi para o journal g - 1 e na subida basta
+// reaplicar os journais g e g + 1 (o g + 1 existe se o processo caiu antes do snapshot seguinte ficar no lugar).
+// O snapshot guarda tambem o proximo ID e a revisao, para IDs excluidos nao voltarem depois de um reinicio
+final class JournalProdutos implements Closeable {
+    private static final byte GRAVACAO = 1;
+    private static final byte EXCLUSAO = 2;
+    private static final int CABECALHO = Long.BYTES;
+
+    interface Leitor {
+        void contadores(long proximoId, long revisao);
+
+        void gravacao(long id, long revisao, String nome, String descricao, double preco, int estoque);
+
+        void exclusao(long id, long revisao);
+    }
+
+    private final Path diretorio;
+    private final Path arquivoSnapshot;
+    private final int capacidadeInicial;
+    private FileChannel canal;
+    private MappedByteBuffer mapa;
+    // geracao do journal ativo e a do ultimo snapshot gravado; so troca de journal quando sao iguais
+    private long geracao;
+    private volatile long geracaoSnapshot;
+    private int posicao = CABECALHO;
+
+    JournalProdutos(Path diretorio, int capacidadeInicial) throws IOException {
+        Files.createDirectories(diretorio);
+        this.diretorio = diretorio;
+        this.arquivoSnapshot = diretorio.resolve("produtos.snapshot");
+        this.capacidadeInicial = capacidadeInicial;
+    }
+
+    // snapshot e depois os journais da geracao dele e da seguinte; deixa ativo o ultimo journal valido
+    void ler(Leitor leitor) throws IOException {
+        if(Files.exists(arquivoSnapshot)){
+            try(DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(arquivoSnapshot)))){
+                geracaoSnapshot = entrada.readLong();
+                leitor.contadores(entrada.readLong(), entrada.readLong());
+                int quantidade = entrada.readInt();
+                for(int i = 0; i < quantidade; i++){
+                    leitor.gravacao(entrada.readLong(), entrada.readLong(), lerTexto(entrada), lerTexto(entrada),
+                            entrada.readDouble(), entrada.readInt());
+                }
+            }
+        }
+
+        abrir(geracaoSnapshot);
+        if(mapa.getLong(0) != geracaoSnapshot){
+            reiniciar();
+            return;
+        }
+        lerRegistros(leitor);
+
+        int fimAtual = posicao;
+        abrir(geracaoSnapshot + 1);
+        if(mapa.getLong(0) == geracaoSnapshot + 1){
+            lerRegistros(leitor);
+            return;
+        }
+        abrir(geracaoSnapshot);
+        posicao = fimAtual;
+    }
+
+    // primeira etapa do snapshot, antes de copiar as linhas: as alteracoes seguintes vao para o outro journal.
+    // Se o snapshot anterior nao chegou a ser gravado, continua no mesmo journal (a copia cobre os dois).
+    // Devolve a geracao que o snapshot deve gravar
+    synchronized long iniciarSnapshot() throws IOException {
+        if(geracaoSnapshot == geracao){
+            abrir(geracao + 1);
+            reiniciar();
+        }
+        return geracao;
+    }
+
+    // sem a trava do journal: as gravacoes continuam no journal novo enquanto o snapshot e escrito
+    void gravarSnapshot(long geracaoLinhas, long proximoId, long revisao, Collection<Linha> linhas) throws IOException {
+        Path temporario = arquivoSnapshot.resolveSibling(arquivoSnapshot.getFileName() + ".tmp");
+        try(FileOutputStream arquivo = new FileOutputStream(temporario.toFile());
+            DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(arquivo, 1 << 16))){
+            saida.writeLong(geracaoLinhas);
+            saida.writeLong(proximoId);
+            saida.writeLong(revisao);
+            saida.writeInt(linhas.size());
+            for(Linha linha : linhas){
+                saida.writeLong(linha.id());
+                saida.writeLong(linha.revisao());
+                escreverTexto(saida, linha.nome());
+                escreverTexto(saida, linha.descricao());
+                saida.writeDouble(linha.preco());
+                saida.writeInt(linha.estoque());
+            }
+            saida.flush();
+            arquivo.getFD().sync();
+        }
+        Files.move(temporario, arquivoSnapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        geracaoSnapshot = geracaoLinhas;
+    }
+
+    synchronized void gravar(long id, long revisao, String nome, String descricao, double preco, int estoque) throws IOException {
+        byte[] bytesNome = bytes(nome);
+        byte[] bytesDescricao = bytes(descricao);
+        int tamanho = 1 + Long.BYTES * 2 + Double.BYTES + Integer.BYTES
+                + Integer.BYTES + comprimento(bytesNome) + Integer.BYTES + comprimento(bytesDescricao);
+        reservar(tamanho);
+        mapa.put(GRAVACAO).putLong(id).putLong(revisao).putDouble(preco).putInt(estoque);
+        escreverTexto(bytesNome);
+        escreverTexto(bytesDescricao);
+        publicar(tamanho);
+    }
+
+    synchronized void gravarExclusao(long id, long revisao) throws IOException {
+        int tamanho = 1 + Long.BYTES * 2;
+        reservar(tamanho);
+        mapa.put(EXCLUSAO).putLong(id).putLong(revisao);
+        publicar(tamanho);
+    }
+
+    synchronized int tamanhoJournal(){
+        return posicao - CABECALHO;
+    }
+
+    synchronized void forcar(){
+        mapa.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapa.force();
+        canal.close();
+    }
+
+    record Linha(long id, long revisao, String nome, String descricao, double preco, int estoque){}
+
+    // o journal que deixa de ser ativo vai para o disco antes de ser fechado
+    private void abrir(long geracaoJournal) throws IOException {
+        if(canal != null){
+            mapa.force();
+            canal.close();
+        }
+        canal = FileChannel.open(diretorio.resolve("produtos-" + (geracaoJournal & 1) + ".journal"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacidadeInicial, canal.size()));
+        geracao = geracaoJournal;
+        posicao = CABECALHO;
+    }
+
+    private void lerRegistros(Leitor leitor){
+        posicao = CABECALHO;
+        while(posicao + Integer.BYTES <= mapa.capacity()){
+            int tamanho = mapa.getInt(posicao);
+            if(tamanho <= 0 || posicao + Integer.BYTES + tamanho > mapa.capacity()) break;
+            mapa.position(posicao + Integer.BYTES);
+            byte tipo = mapa.get();
+            long id = mapa.getLong();
+            long revisao = mapa.getLong();
+            if(tipo == GRAVACAO){
+                double preco = mapa.getDouble();
+                int estoque = mapa.getInt();
+                leitor.gravacao(id, revisao, lerTexto(), lerTexto(), preco, estoque);
+            }else{
+                leitor.exclusao(id, revisao);
+            }
+            posicao += Integer.BYTES + tamanho;
+        }
+    }
+
+    private void reiniciar(){
+        posicao = CABECALHO;
+        mapa.putInt(posicao, 0);
+        mapa.putLong(0, geracao);
+    }
+
+    // garante espaco para o registro, o prefixo de tamanho e o terminador; cresce o arquivo se preciso
+    private void reservar(int tamanho) throws IOException {
+        long necessario = (long) posicao + Integer.BYTES + tamanho + Integer.BYTES;
+        if(necessario > mapa.capacity()){
+            long capacidade = mapa.capacity();
+            while(capacidade < necessario) capacidade *= 2;
+            if(capacidade > Integer.MAX_VALUE) throw new IOException("Journal de produtos cheio");
+            mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, capacidade);
+        }
+        mapa.position(posicao + Integer.BYTES);
+    }
+
+    // o terminador vai antes do tamanho: um registro so passa a valer quando esta completo
+    private void publicar(int tamanho){
+        int fim = posicao + Integer.BYTES + tamanho;
+        mapa.putInt(fim, 0);
+        mapa.putInt(posicao, tamanho);
+        posicao = fim;
+    }
+
+    private void escreverTexto(byte[] texto){
+        if(texto == null){
+            mapa.putInt(-1);
+            return;
+        }
+        mapa.putInt(texto.length).put(texto);
+    }
+
+    private String lerTexto(){
+        int tamanho = mapa.getInt();
+        if(tamanho < 0) return null;
+        byte[] texto = new byte[tamanho];
+        mapa.get(texto);
+        return new String(texto, StandardCharsets.UTF_8);
+    }
+
+    private static void escreverTexto(DataOutputStream saida, String texto) throws IOException {
+        if(texto == null){
+            saida.writeInt(-1);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        saida.writeInt(bytes.length);
+        saida.write(bytes);
+    }
+
+    private static String lerTexto(DataInputStream dados) throws IOException {
+        int tamanho = dados.readInt();
+        if(tamanho < 0) return null;
+        byte[] texto = new byte[tamanho];
+        try{
+            dados.readFully(texto);
+        }catch(EOFException eof){
+            throw new IOException("Snapshot de produtos incompleto", eof);
+        }
+        return new String(texto, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String texto){
+        return texto == null ? null : texto.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int comprimento(byte[] texto){
+        return texto == null ? 0 : texto.length;
+    }
+}
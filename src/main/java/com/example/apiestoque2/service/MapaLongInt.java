@@ -0,0 +1,108 @@
+package com.example.apiestoque2.service;
+
+import java.util.Arrays;
+
+// Mapa long -> int com enderecamento aberto (sondagem linear), sem objetos por entrada.
+// A chave 0 marca posicao livre, entao so aceita chaves diferentes de zero (IDs de produto).
+// Nao e thread-safe: ArmazenamentoProdutosMemoria so altera o mapa com a trava de estrutura
+final class MapaLongInt {
+    static final int AUSENTE = -1;
+
+    private long[] chaves;
+    private int[] valores;
+    private int mascara;
+    private int tamanho;
+
+    MapaLongInt(int capacidadeInicial){
+        int capacidade = 16;
+        while(capacidade < capacidadeInicial * 2) capacidade <<= 1;
+        alocar(capacidade);
+    }
+
+    int obter(long chave){
+        int i = posicao(chave);
+        while(true){
+            long atual = chaves[i];
+            if(atual == chave) return valores[i];
+            if(atual == 0) return AUSENTE;
+            i = (i + 1) & mascara;
+        }
+    }
+
+    void colocar(long chave, int valor){
+        // fator de carga maximo de 0,5: sequencias de sondagem curtas
+        if((tamanho + 1) * 2 > chaves.length) redimensionar(chaves.length * 2);
+        int i = posicao(chave);
+        while(true){
+            long atual = chaves[i];
+            if(atual == 0){
+                chaves[i] = chave;
+                valores[i] = valor;
+                tamanho++;
+                return;
+            }
+            if(atual == chave){
+                valores[i] = valor;
+                return;
+            }
+            i = (i + 1) & mascara;
+        }
+    }
+
+    void remover(long chave){
+        int i = posicao(chave);
+        while(true){
+            long atual = chaves[i];
+            if(atual == 0) return;
+            if(atual == chave) break;
+            i = (i + 1) & mascara;
+        }
+
+        // desloca para tras as entradas seguintes que estavam depois da posicao ideal, sem marcas de remocao
+        int livre = i;
+        int j = i;
+        while(true){
+            j = (j + 1) & mascara;
+            long atual = chaves[j];
+            if(atual == 0) break;
+            int ideal = posicao(atual);
+            if(((j - ideal) & mascara) >= ((j - livre) & mascara)){
+                chaves[livre] = atual;
+                valores[livre] = valores[j];
+                livre = j;
+            }
+        }
+        chaves[livre] = 0;
+        tamanho--;
+    }
+
+    int tamanho(){
+        return tamanho;
+    }
+
+    void limpar(){
+        Arrays.fill(chaves, 0);
+        tamanho = 0;
+    }
+
+    private int posicao(long chave){
+        long h = chave * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mascara;
+    }
+
+    private void redimensionar(int capacidade){
+        long[] chavesAntigas = chaves;
+        int[] valoresAntigos = valores;
+        alocar(capacidade);
+        for(int i = 0; i < chavesAntigas.length; i++){
+            if(chavesAntigas[i] != 0) colocar(chavesAntigas[i], valoresAntigos[i]);
+        }
+    }
+
+    private void alocar(int capacidade){
+        chaves = new long[capacidade];
+        valores = new int[capacidade];
+        mascara = capacidade - 1;
+        tamanho = 0;
+    }
+}
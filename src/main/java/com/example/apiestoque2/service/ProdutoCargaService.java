@@ -0,0 +1,159 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.Produto;
+import com.example.apiestoque2.models.ResultadoCarga;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.annotation.Timed;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Carga em lote via JDBC: o Hibernate nao agrupa INSERTs com GenerationType.IDENTITY,
+// entao cada bloco vira um unico batch (reescrito em INSERT multi-linha pelo driver)
+@Service
+@ConditionalOnProperty(name = "produtos.armazenamento", havingValue = "jpa", matchIfMissing = true)
+@Timed("produto.service")
+public class ProdutoCargaService {
+    private static final String SQL_INSERIR =
+            "INSERT INTO produto (nome, descricao, preco, quantidadeestoque) VALUES (?, ?, ?, ?)";
+    private static final String SQL_ATUALIZAR =
+            "UPDATE produto SET nome = ?, descricao = ?, preco = ?, quantidadeestoque = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final ProdutoService produtoService;
+    private final int tamanhoLote;
+
+    public ProdutoCargaService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                               Validator validator, ObjectMapper objectMapper, ProdutoService produtoService,
+                               @Value("${produtos.carga.tamanho-lote:1000}") int tamanhoLote){
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.produtoService = produtoService;
+        this.tamanhoLote = tamanhoLote;
+    }
+
+    // aceita um array JSON ou um JSON por linha (NDJSON)
+    public ResultadoCarga carregar(InputStream entrada) throws IOException {
+        ResultadoCarga resultado = new ResultadoCarga();
+        List<LinhaCarga> bloco = new ArrayList<>(tamanhoLote);
+        int linha = 0;
+
+        try(MappingIterator<Produto> produtos = objectMapper.readerFor(Produto.class).readValues(entrada)){
+            while(true){
+                Produto produto;
+                linha++;
+                try{
+                    if(!produtos.hasNextValue()) break;
+                    produto = produtos.nextValue();
+                }catch(JsonParseException jpe){
+                    // JSON malformado: nao da para saber onde comeca o proximo produto
+                    resultado.adicionarErro(linha, "geral", "JSON inválido");
+                    break;
+                }catch(JsonMappingException jme){
+                    resultado.adicionarErro(linha, "geral", "produto com campos inválidos");
+                    continue;
+                }
+
+                if(validar(produto, linha, resultado)){
+                    bloco.add(new LinhaCarga(linha, produto));
+                    if(bloco.size() == tamanhoLote){
+                        persistirBloco(bloco, resultado);
+                        bloco.clear();
+                    }
+                }
+            }
+        }
+        if(!bloco.isEmpty()) persistirBloco(bloco, resultado);
+        return resultado;
+    }
+
+    private boolean validar(Produto produto, int linha, ResultadoCarga resultado){
+        Set<ConstraintViolation<Produto>> violations = validator.validate(produto);
+        for(ConstraintViolation<Produto> violation : violations){
+            resultado.adicionarErro(linha, violation.getPropertyPath().toString(), violation.getMessage());
+        }
+        if(produto.getId() < 0){
+            resultado.adicionarErro(linha, "id", "ID não pode ser negativo.");
+            return false;
+        }
+        return violations.isEmpty();
+    }
+
+    // o resultado e o cache so mudam depois do commit: um bloco que volta atras nao deixa contagem nem invalidacao
+    private void persistirBloco(List<LinhaCarga> bloco, ResultadoCarga resultado){
+        try{
+            registrar(transactionTemplate.execute(status -> gravar(bloco)), resultado);
+        }catch(DataAccessException dae){
+            // o bloco inteiro voltou atras: regrava linha a linha para apontar quais falharam
+            for(LinhaCarga linhaCarga : bloco){
+                try{
+                    registrar(transactionTemplate.execute(status -> gravar(List.of(linhaCarga))), resultado);
+                }catch(DataAccessException erro){
+                    resultado.adicionarErro(linhaCarga.linha(), "geral", "erro ao gravar produto");
+                }
+            }
+        }
+    }
+
+    private void registrar(BlocoGravado gravado, ResultadoCarga resultado){
+        for(LinhaCarga linhaCarga : gravado.naoEncontrados()){
+            resultado.adicionarErro(linhaCarga.linha(), "id", "Produto com ID " + linhaCarga.produto().getId() + " não encontrado.");
+        }
+        resultado.somarInseridos(gravado.inseridos());
+        resultado.somarAtualizados(gravado.idsAtualizados().size());
+        produtoService.invalidarCache(gravado.idsAtualizados());
+    }
+
+    private BlocoGravado gravar(List<LinhaCarga> bloco){
+        List<Object[]> insercoes = new ArrayList<>();
+        List<LinhaCarga> atualizacoes = new ArrayList<>();
+        List<Object[]> parametrosAtualizacao = new ArrayList<>();
+        for(LinhaCarga linhaCarga : bloco){
+            Produto p = linhaCarga.produto();
+            if(p.getId() == 0){
+                insercoes.add(new Object[]{p.getNome(), p.getDescricao(), p.getPreco(), p.getQuantidadeEstoque()});
+            }else{
+                atualizacoes.add(linhaCarga);
+                parametrosAtualizacao.add(new Object[]{p.getNome(), p.getDescricao(), p.getPreco(), p.getQuantidadeEstoque(), p.getId()});
+            }
+        }
+
+        if(!insercoes.isEmpty()) jdbcTemplate.batchUpdate(SQL_INSERIR, insercoes);
+
+        List<Long> idsAtualizados = new ArrayList<>();
+        List<LinhaCarga> naoEncontrados = new ArrayList<>();
+        if(!atualizacoes.isEmpty()){
+            int[] contagens = jdbcTemplate.batchUpdate(SQL_ATUALIZAR, parametrosAtualizacao);
+            for(int i = 0; i < contagens.length; i++){
+                LinhaCarga linhaCarga = atualizacoes.get(i);
+                if(contagens[i] == 0) naoEncontrados.add(linhaCarga);
+                else idsAtualizados.add(linhaCarga.produto().getId());
+            }
+        }
+        return new BlocoGravado(insercoes.size(), idsAtualizados, naoEncontrados);
+    }
+
+    private record LinhaCarga(int linha, Produto produto){}
+
+    private record BlocoGravado(int inseridos, List<Long> idsAtualizados, List<LinhaCarga> naoEncontrados){}
+}
@@ -1,41 +1,301 @@
 package com.example.apiestoque2.service;
 
+import com.example.apiestoque2.models.AlteracoesProdutos;
+import com.example.apiestoque2.models.ItemReserva;
+import com.example.apiestoque2.models.PaginaCamposProdutos;
+import com.example.apiestoque2.models.PaginaProdutos;
 import com.example.apiestoque2.models.Produto;
-import com.example.apiestoque2.repository.ProdutoRepository;
+import com.example.apiestoque2.models.ProdutosEncontrados;
+import com.example.apiestoque2.models.ResultadoExclusao;
+import com.example.apiestoque2.repository.ProdutoRepositoryCustom;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
+@Timed("produto.service")
 public class ProdutoService {
-    private final ProdutoRepository produtoRepository;
+    private final ArmazenamentoProdutos armazenamento;
+    private final AgregacaoEstoque agregacao;
+    // Caffeine usa admissao W-TinyLFU: itens lidos uma unica vez nao expulsam os mais acessados
+    private final Cache<Long, Produto> cache;
+    // leituras iguais e simultaneas (ex.: o mesmo produto em promocao) viram uma unica consulta
+    private final ChamadaUnica<Long, Produto> buscasPorId;
+    private final ChamadaUnica<List<Object>, List<Produto>> buscasPorNomeEPreco;
+    // instante (nanos desde a subida) da ultima escrita por faixa de IDs: uma leitura que comecou antes dela nao grava o que leu
+    // no cache. Com replicas, vale tambem para leituras que comecaram ate a janela de leitura pos-escrita depois dela
+    private final AtomicLongArray ultimasEscritas = new AtomicLongArray(FAIXAS_ESCRITA);
+    private final long janelaReplicasNanos;
+    private final long relogioBase = System.nanoTime();
+    private static final int FAIXAS_ESCRITA = 1024;
 
-    public ProdutoService(ProdutoRepository produtoRepository){
-        this.produtoRepository = produtoRepository;
+    public ProdutoService(ArmazenamentoProdutos armazenamento, AgregacaoEstoque agregacao, MeterRegistry registry,
+                          @Value("${produtos.cache.tamanho-maximo:10000}") long tamanhoMaximoCache,
+                          @Value("${produtos.cache.ttl-segundos:60}") long ttlCacheSegundos,
+                          @Value("${produtos.chamada-unica.espera-maxima-ms:5000}") long esperaMaximaChamadaUnicaMs,
+                          @Value("${produtos.replicas.urls:}") String urlsReplicas,
+                          @Value("${produtos.replicas.janela-leitura-pos-escrita:5s}") Duration janelaLeituraPosEscrita){
+        this.armazenamento = armazenamento;
+        this.janelaReplicasNanos = urlsReplicas.isBlank() ? 0 : janelaLeituraPosEscrita.toNanos();
+        for(int i = 0; i < FAIXAS_ESCRITA; i++) ultimasEscritas.set(i, Long.MIN_VALUE);
+        this.agregacao = agregacao;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(tamanhoMaximoCache)
+                .expireAfterWrite(Duration.ofSeconds(ttlCacheSegundos))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "produtos");
+        Duration esperaMaxima = Duration.ofMillis(esperaMaximaChamadaUnicaMs);
+        this.buscasPorId = new ChamadaUnica<>("buscarProduto", Produto::new, esperaMaxima, registry);
+        this.buscasPorNomeEPreco = new ChamadaUnica<>("buscarPorNomeEPrecoMenorQue",
+                produtos -> produtos.stream().map(Produto::new).collect(Collectors.toCollection(ArrayList::new)),
+                esperaMaxima, registry);
     }
 
     public List<Produto> buscarTodos(){
-        return produtoRepository.findAll();
+        return armazenamento.buscarTodos();
+    }
+
+    public PaginaProdutos buscarPagina(long cursor, int tamanho){
+        List<Produto> produtos = armazenamento.buscarPagina(cursor, tamanho);
+        Long proximoCursor = produtos.size() < tamanho ? null : produtos.get(produtos.size() - 1).getId();
+        return new PaginaProdutos(produtos, proximoCursor);
+    }
+
+    // fields=nome,preco -> [nome, preco]; nulo quando o parametro nao veio (resposta com o produto inteiro)
+    public List<String> lerCampos(String fields){
+        if(fields == null) return null;
+        LinkedHashSet<String> campos = new LinkedHashSet<>();
+        for(String campo : fields.split(",")){
+            campo = campo.trim();
+            if(!ProdutoRepositoryCustom.CAMPOS_PROJECAO.containsKey(campo)) throw new IllegalArgumentException("campo desconhecido: " + campo);
+            campos.add(campo);
+        }
+        return new ArrayList<>(campos);
+    }
+
+    public List<Map<String, Object>> buscarTodosCampos(List<String> campos){
+        return armazenamento.listarCampos(campos, 0, Limit.unlimited());
+    }
+
+    // o ID sempre vem na pagina porque e o cursor da proxima
+    public PaginaCamposProdutos buscarPaginaCampos(List<String> campos, long cursor, int tamanho){
+        List<String> comId = campos.contains("id") ? campos : new ArrayList<>(campos);
+        if(comId != campos) comId.add(0, "id");
+        List<Map<String, Object>> produtos = armazenamento.listarCampos(comId, cursor, Limit.of(tamanho));
+        Long proximoCursor = produtos.size() < tamanho ? null : (Long) produtos.get(produtos.size() - 1).get("id");
+        return new PaginaCamposProdutos(produtos, proximoCursor);
+    }
+
+    public void exportarTodos(Consumer<Produto> consumidor){
+        armazenamento.exportarTodos(consumidor);
+    }
+
+    public <T> T lerComVersaoCatalogo(Function<String, T> leitura){
+        return armazenamento.lerComVersaoCatalogo(leitura);
+    }
+
+    public AlteracoesProdutos buscarAlteracoes(long desde, int tamanho){
+        return armazenamento.buscarAlteracoes(desde, tamanho);
     }
 
     public Produto buscarProduto(Long id){
-        return produtoRepository.findById(id).orElseThrow(() -> new RuntimeException("Produto não encontrado"));
+        // o cache guarda copias: quem chama pode alterar o produto retornado sem afetar o cache
+        Produto emCache = cache.getIfPresent(id);
+        if(emCache != null) return new Produto(emCache);
+
+        return buscasPorId.executar(id, () -> {
+            long inicio = agora();
+            Produto produto = armazenamento.buscarPorId(id).orElseThrow(() -> new RuntimeException("Produto não encontrado"));
+            guardarNoCache(produto, inicio);
+            return produto;
+        });
+    }
+
+    // cache primeiro; os que faltam vem do armazenamento de uma vez
+    public ProdutosEncontrados buscarPorIds(Collection<Long> ids){
+        Map<Long, Produto> encontrados = new HashMap<>();
+        List<Long> faltando = new ArrayList<>();
+        for(Long id : new LinkedHashSet<>(ids)){
+            Produto emCache = cache.getIfPresent(id);
+            if(emCache != null) encontrados.put(id, new Produto(emCache));
+            else faltando.add(id);
+        }
+        if(!faltando.isEmpty()){
+            long inicio = agora();
+            for(Produto produto : armazenamento.buscarPorIds(faltando)){
+                guardarNoCache(produto, inicio);
+                encontrados.put(produto.getId(), produto);
+            }
+        }
+
+        List<Produto> produtos = new ArrayList<>(encontrados.size());
+        List<Long> naoEncontrados = new ArrayList<>();
+        for(Long id : new LinkedHashSet<>(ids)){
+            Produto produto = encontrados.get(id);
+            if(produto != null) produtos.add(produto);
+            else naoEncontrados.add(id);
+        }
+        return new ProdutosEncontrados(produtos, naoEncontrados);
     }
 
     public Produto excluirProduto(Long id){
-        Optional<Produto> prod = produtoRepository.findById(id);
-        if(prod.isPresent()){
-            produtoRepository.deleteById(id);
-            return prod.get();
+        Optional<Produto> prod = armazenamento.excluir(id);
+        registrarEscrita(List.of(id));
+        cache.invalidate(id);
+        prod.ifPresent(excluido -> agregacao.remover(excluido.getId()));
+        return prod.orElse(null);
+    }
+
+    public ResultadoExclusao excluirProdutos(Collection<Long> ids){
+        List<Long> distintos = new ArrayList<>(new LinkedHashSet<>(ids));
+        Set<Long> excluidos = new HashSet<>(armazenamento.excluirTodos(distintos));
+        registrarEscrita(distintos);
+        cache.invalidateAll(distintos);
+
+        List<Long> naoEncontrados = new ArrayList<>();
+        List<Long> ordenados = new ArrayList<>(excluidos.size());
+        for(Long id : distintos){
+            if(excluidos.contains(id)){
+                ordenados.add(id);
+                agregacao.remover(id);
+            }else{
+                naoEncontrados.add(id);
+            }
         }
-        return null;
+        return new ResultadoExclusao(ordenados, naoEncontrados);
     }
 
     public List<Produto> buscarProdutoPorNomeEPrecoMenorQue(String nome, double preco){
-        return produtoRepository.findByNomeLikeIgnoreCaseAndPrecoLessThan(nome, preco);
+        return buscasPorNomeEPreco.executar(List.of(nome, preco), () -> armazenamento.buscarPorNomeEPrecoMenorQue(nome, preco));
+    }
+
+    public List<Produto> buscarPorTermo(String termo, double precoMinimo, double precoMaximo, int estoqueMinimo, int pagina, int tamanho){
+        return armazenamento.buscarPorTermo(termo, padraoLike(termo), precoMinimo, precoMaximo,
+                estoqueMinimo, tamanho, (long) pagina * tamanho);
+    }
+
+    public List<Map<String, Object>> buscarCamposPorNomeEPrecoMenorQue(List<String> campos, String nome, double preco){
+        return armazenamento.buscarCamposPorNomeEPrecoMenorQue(campos, nome, preco);
+    }
+
+    public List<Map<String, Object>> buscarCamposPorTermo(List<String> campos, String termo, double precoMinimo, double precoMaximo,
+                                                          int estoqueMinimo, int pagina, int tamanho){
+        return armazenamento.buscarCamposPorTermo(campos, termo, padraoLike(termo), precoMinimo, precoMaximo,
+                estoqueMinimo, tamanho, (long) pagina * tamanho);
+    }
+
+    // o termo entra no LIKE como texto literal
+    private static String padraoLike(String termo){
+        return "%" + termo.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
     }
 
     public Produto salvarProduto(Produto produto){
-        return produtoRepository.save(produto);
+        Produto salvo = armazenamento.salvar(produto);
+        registrarEscrita(List.of(salvo.getId()));
+        cache.put(salvo.getId(), new Produto(salvo));
+        agregacao.registrar(salvo);
+        return salvo;
+    }
+
+    public boolean adicionarEstoque(long id, int quantidade){
+        boolean alterado = armazenamento.adicionarEstoque(id, quantidade);
+        registrarEscrita(List.of(id));
+        cache.invalidate(id);
+        if(alterado) agregacao.ajustarEstoque(id, quantidade);
+        return alterado;
+    }
+
+    public boolean retirarEstoque(long id, int quantidade){
+        boolean alterado = armazenamento.retirarEstoque(id, quantidade);
+        registrarEscrita(List.of(id));
+        cache.invalidate(id);
+        if(alterado) agregacao.ajustarEstoque(id, -quantidade);
+        return alterado;
+    }
+
+    // tudo ou nada: qualquer item sem estoque desfaz a reserva inteira. IDs repetidos somam as quantidades, em long
+    // para o total nao dar a volta no int; IllegalArgumentException se o total de um produto nao cabe no int
+    public void reservarEstoque(List<ItemReserva> itens){
+        SortedMap<Long, Long> totais = new TreeMap<>();
+        for(ItemReserva item : itens){
+            totais.merge(item.getId(), (long) item.getQuantidade(), Long::sum);
+        }
+        SortedMap<Long, Integer> quantidades = new TreeMap<>();
+        totais.forEach((id, total) -> {
+            if(total > Integer.MAX_VALUE) throw new IllegalArgumentException("quantidade total do produto " + id + " passa de " + Integer.MAX_VALUE);
+            quantidades.put(id, total.intValue());
+        });
+        armazenamento.reservarEstoque(quantidades);
+        registrarEscrita(quantidades.keySet());
+        cache.invalidateAll(quantidades.keySet());
+        quantidades.forEach((id, quantidade) -> agregacao.ajustarEstoque(id, -quantidade));
+    }
+
+    public void invalidarCache(Collection<Long> ids){
+        registrarEscrita(ids);
+        cache.invalidateAll(ids);
+    }
+
+    // chamado depois do commit e antes de mexer no cache: leituras novas nao aproveitam consultas que comecaram
+    // antes da escrita, e as que ja estao em andamento nao repovoam o cache com o valor anterior
+    private void registrarEscrita(Collection<Long> ids){
+        long agora = agora();
+        for(Long id : ids){
+            ultimasEscritas.accumulateAndGet(faixaEscrita(id), agora, Math::max);
+            buscasPorId.esquecer(id);
+        }
+        buscasPorNomeEPreco.esquecerTodas();
+    }
+
+    // grava e confere depois: se a escrita marcou a faixa antes da conferencia, a copia sai do cache; se marcou
+    // depois, a invalidacao dela (que vem em seguida) tira a copia
+    private void guardarNoCache(Produto produto, long inicioLeitura){
+        long id = produto.getId();
+        cache.put(id, new Produto(produto));
+        if(ultimasEscritas.get(faixaEscrita(id)) >= inicioLeitura - janelaReplicasNanos) cache.invalidate(id);
+    }
+
+    private long agora(){
+        return System.nanoTime() - relogioBase;
+    }
+
+    private static int faixaEscrita(long id){
+        return (int) (Long.hashCode(id * 0x9E3779B97F4A7C15L) & (FAIXAS_ESCRITA - 1));
+    }
+
+    public Map<String, Number> estatisticasCache(){
+        CacheStats estatisticas = cache.stats();
+        Map<String, Number> retorno = new LinkedHashMap<>();
+        retorno.put("acertos", estatisticas.hitCount());
+        retorno.put("falhas", estatisticas.missCount());
+        retorno.put("taxaAcerto", estatisticas.hitRate());
+        retorno.put("expulsoes", estatisticas.evictionCount());
+        retorno.put("tamanho", cache.estimatedSize());
+        return retorno;
     }
 }
@@ -0,0 +1,85 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.EventoProduto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+// Le a tabela produto_evento em lotes, entrega aos consumidores e apaga o que foi entregue.
+// O lote e reservado (reservado_ate) num unico comando com SKIP LOCKED, que faz commit na hora; a entrega roda
+// fora de transacao, sem segurar conexao nem travas enquanto um consumidor demora. Se a entrega falhar a reserva
+// e desfeita; se a instancia cair, a reserva vence e o lote volta. Entrega pelo menos uma vez; com varias
+// instancias os lotes se dividem entre elas, entao os consumidores devem usar a revisao para ordenar e
+// descartar eventos antigos.
+@Service
+@ConditionalOnProperty(name = "produtos.eventos.habilitado", havingValue = "true", matchIfMissing = true)
+public class RelayEventosProduto {
+    private static final Logger log = LoggerFactory.getLogger(RelayEventosProduto.class);
+    private static final RowMapper<EventoProduto> MAPEADOR = (rs, linha) -> new EventoProduto(
+            rs.getLong("id"),
+            rs.getLong("produto_id"),
+            rs.getString("tipo"),
+            rs.getLong("revisao"),
+            rs.getString("dados"),
+            rs.getTimestamp("criado_em").toInstant());
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final List<ConsumidorEventosProduto> consumidores;
+    private final int tamanhoLote;
+    private final long reservaSegundos;
+
+    public RelayEventosProduto(NamedParameterJdbcTemplate jdbcTemplate, List<ConsumidorEventosProduto> consumidores,
+                               @Value("${produtos.eventos.tamanho-lote:500}") int tamanhoLote,
+                               @Value("${produtos.eventos.reserva-segundos:60}") long reservaSegundos){
+        this.jdbcTemplate = jdbcTemplate;
+        this.consumidores = consumidores;
+        this.tamanhoLote = tamanhoLote;
+        this.reservaSegundos = reservaSegundos;
+    }
+
+    @Scheduled(fixedDelayString = "${produtos.eventos.intervalo-ms:500}")
+    public void publicarPendentes(){
+        try{
+            int publicados;
+            do{
+                publicados = publicarLote();
+            }while(publicados == tamanhoLote);
+        }catch(RuntimeException re){
+            log.warn("Falha ao publicar eventos de produto, nova tentativa no próximo ciclo", re);
+        }
+    }
+
+    private int publicarLote(){
+        List<EventoProduto> eventos = new ArrayList<>(jdbcTemplate.query(
+                "UPDATE produto_evento SET reservado_ate = now() + make_interval(secs => :reserva) WHERE id IN (" +
+                        "SELECT id FROM produto_evento WHERE reservado_ate IS NULL OR reservado_ate < now() " +
+                        "ORDER BY id LIMIT :tamanho FOR UPDATE SKIP LOCKED) " +
+                        "RETURNING id, produto_id, tipo, revisao, dados, criado_em",
+                Map.of("tamanho", tamanhoLote, "reserva", reservaSegundos), MAPEADOR));
+        if(eventos.isEmpty()) return 0;
+        // RETURNING nao garante ordem
+        eventos.sort(Comparator.comparingLong(EventoProduto::getId));
+        Map<String, Object> ids = Map.of("ids", eventos.stream().map(EventoProduto::getId).toList());
+
+        try{
+            for(ConsumidorEventosProduto consumidor : consumidores){
+                consumidor.publicar(eventos);
+            }
+        }catch(RuntimeException re){
+            jdbcTemplate.update("UPDATE produto_evento SET reservado_ate = NULL WHERE id IN (:ids)", ids);
+            throw re;
+        }
+        jdbcTemplate.update("DELETE FROM produto_evento WHERE id IN (:ids)", ids);
+        return eventos.size();
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.Produto;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import jakarta.validation.metadata.PropertyDescriptor;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Validacao da atualizacao parcial (JSON Merge Patch, RFC 7396) com o Validator do Spring,
+// criado uma unica vez, em vez de montar uma ValidatorFactory por requisicao
+@Component
+public class ValidadorProduto {
+    private static final Set<String> CAMPOS_ATUALIZAVEIS = Set.of("nome", "descricao", "preco", "quantidadeEstoque");
+
+    private final Validator validator;
+    // somente campos com restricoes passam pelo Validator
+    private final Set<String> camposComRestricoes;
+
+    public ValidadorProduto(Validator validator){
+        this.validator = validator;
+        this.camposComRestricoes = validator.getConstraintsForClass(Produto.class)
+                .getConstrainedProperties().stream()
+                .map(PropertyDescriptor::getPropertyName)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    // copia os campos do patch para o produto checando o tipo de cada um; campos alterados vao para "campos"
+    public Map<String, String> aplicarAtualizacoes(Produto produto, JsonNode updates, List<String> campos){
+        if(updates == null || !updates.isObject()) return Map.of("geral", "o corpo deve ser um objeto JSON");
+
+        Map<String, String> erros = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> atualizacoes = updates.fields();
+        while(atualizacoes.hasNext()){
+            Map.Entry<String, JsonNode> atualizacao = atualizacoes.next();
+            String campo = atualizacao.getKey();
+            if(!CAMPOS_ATUALIZAVEIS.contains(campo)) continue;
+
+            JsonNode valor = atualizacao.getValue();
+            switch(campo){
+                case "nome" -> {
+                    if(valor.isNull() || valor.isTextual()) produto.setNome(valor.textValue());
+                    else erros.put(campo, "deve ser texto");
+                }
+                case "descricao" -> {
+                    if(valor.isNull() || valor.isTextual()) produto.setDescricao(valor.textValue());
+                    else erros.put(campo, "deve ser texto");
+                }
+                case "preco" -> {
+                    if(valor.isNull()) erros.put(campo, "O preço não pode ser nulo");
+                    else if(valor.isNumber()) produto.setPreco(valor.doubleValue());
+                    else erros.put(campo, "deve ser numérico");
+                }
+                case "quantidadeEstoque" -> {
+                    if(valor.isNull()) erros.put(campo, "A quantidade não pode ser nula");
+                    else if(valor.isIntegralNumber() && valor.canConvertToInt()) produto.setQuantidadeEstoque(valor.intValue());
+                    else erros.put(campo, "deve ser numérico");
+                }
+            }
+            campos.add(campo);
+        }
+        return erros;
+    }
+
+    public Map<String, String> validarCampos(Produto produto, Collection<String> campos){
+        Map<String, String> erros = null;
+        for(String campo : campos){
+            if(!camposComRestricoes.contains(campo)) continue;
+
+            Set<ConstraintViolation<Produto>> violations = validator.validateProperty(produto, campo);
+            if(!violations.isEmpty()){
+                if(erros == null) erros = new HashMap<>();
+                erros.put(campo, violations.iterator().next().getMessage());
+            }
+        }
+        return erros == null ? Map.of() : erros;
+    }
+}
@@ -0,0 +1,10 @@
+-- mesma tabela que o ddl-auto=update criava; IF NOT EXISTS para bancos que ja existiam antes das migracoes
+CREATE TABLE IF NOT EXISTS produto (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    nome varchar(255),
+    descricao varchar(255),
+    preco float(53) NOT NULL,
+    quantidadeestoque integer NOT NULL
+);
+
+ALTER TABLE produto ADD COLUMN IF NOT EXISTS revisao bigint NOT NULL DEFAULT 0;
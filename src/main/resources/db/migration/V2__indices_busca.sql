@@ -0,0 +1,9 @@
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- atende o upper(nome) LIKE upper(?) gerado por findByNomeLikeIgnoreCaseAndPrecoLessThan e a busca por termo
+CREATE INDEX IF NOT EXISTS produto_nome_trgm_idx ON produto USING gin (upper(nome) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS produto_texto_idx ON produto
+    USING gin (to_tsvector('simple', coalesce(nome, '') || ' ' || coalesce(descricao, '')));
+
+CREATE INDEX IF NOT EXISTS produto_preco_idx ON produto (preco);
@@ -0,0 +1,50 @@
+-- revisao global: todo insert/update recebe o proximo valor e toda exclusao deixa um registro
+-- em produto_exclusao, para que os clientes baixem so o que mudou desde a ultima revisao vista
+CREATE SEQUENCE IF NOT EXISTS produto_revisao_seq;
+
+CREATE TABLE IF NOT EXISTS produto_exclusao (
+    id bigint PRIMARY KEY,
+    revisao bigint NOT NULL
+);
+
+-- outbox: o trigger grava um evento por alteracao na mesma transacao; RelayEventosProduto publica e apaga
+CREATE TABLE IF NOT EXISTS produto_evento (
+    id bigserial PRIMARY KEY,
+    produto_id bigint NOT NULL,
+    tipo varchar(20) NOT NULL,
+    revisao bigint NOT NULL,
+    dados jsonb NOT NULL,
+    criado_em timestamptz NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS produto_revisao_idx ON produto (revisao);
+CREATE INDEX IF NOT EXISTS produto_exclusao_revisao_idx ON produto_exclusao (revisao);
+
+-- mesmo formato JSON que a API usa para Produto
+CREATE OR REPLACE FUNCTION produto_json(p produto, revisao bigint) RETURNS jsonb AS $$
+    SELECT jsonb_build_object('id', p.id, 'nome', p.nome, 'descricao', p.descricao, 'preco', p.preco,
+                              'quantidadeEstoque', p.quantidadeestoque, 'revisao', revisao);
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION produto_registrar_revisao() RETURNS trigger AS $$
+DECLARE
+    revisao_exclusao bigint;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        revisao_exclusao := nextval('produto_revisao_seq');
+        INSERT INTO produto_exclusao (id, revisao) VALUES (OLD.id, revisao_exclusao)
+            ON CONFLICT (id) DO UPDATE SET revisao = EXCLUDED.revisao;
+        INSERT INTO produto_evento (produto_id, tipo, revisao, dados)
+            VALUES (OLD.id, 'EXCLUIDO', revisao_exclusao, produto_json(OLD, revisao_exclusao));
+        RETURN OLD;
+    END IF;
+    NEW.revisao := nextval('produto_revisao_seq');
+    INSERT INTO produto_evento (produto_id, tipo, revisao, dados)
+        VALUES (NEW.id, CASE TG_OP WHEN 'INSERT' THEN 'CRIADO' ELSE 'ATUALIZADO' END, NEW.revisao, produto_json(NEW, NEW.revisao));
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS produto_revisao_trg ON produto;
+CREATE TRIGGER produto_revisao_trg BEFORE INSERT OR UPDATE OR DELETE ON produto
+    FOR EACH ROW EXECUTE FUNCTION produto_registrar_revisao();
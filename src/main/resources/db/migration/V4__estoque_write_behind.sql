@@ -0,0 +1,5 @@
+-- segmentos do journal de estoque ja gravados (write-behind); evita reaplicar um journal depois de uma queda
+CREATE TABLE IF NOT EXISTS produto_estoque_lote (
+    segmento bigint PRIMARY KEY,
+    aplicado_em timestamptz NOT NULL DEFAULT now()
+);
@@ -0,0 +1,39 @@
+-- A sequence entrega a revisao quando a linha e gravada, nao quando a transacao faz commit: uma transacao com a
+-- revisao N podia fazer commit depois de outra com N+1, e quem ja tinha visto N+1 (em /alteracoes ou no ETag do
+-- catalogo) nunca recebia N. Com um contador de linha unica atualizado na propria transacao, a segunda transacao
+-- espera a trava da linha ate a primeira terminar, entao a ordem das revisoes e a ordem dos commits.
+-- Custo: transacoes que alteram produtos fazem commit uma de cada vez a partir da primeira alteracao
+CREATE TABLE IF NOT EXISTS produto_revisao (
+    unica boolean PRIMARY KEY DEFAULT true CHECK (unica),
+    valor bigint NOT NULL
+);
+
+INSERT INTO produto_revisao (valor)
+SELECT GREATEST((SELECT COALESCE(MAX(revisao), 0) FROM produto),
+                (SELECT COALESCE(MAX(revisao), 0) FROM produto_exclusao))
+ON CONFLICT (unica) DO NOTHING;
+
+CREATE OR REPLACE FUNCTION produto_proxima_revisao() RETURNS bigint AS $$
+    UPDATE produto_revisao SET valor = valor + 1 RETURNING valor;
+$$ LANGUAGE sql VOLATILE;
+
+CREATE OR REPLACE FUNCTION produto_registrar_revisao() RETURNS trigger AS $$
+DECLARE
+    revisao_exclusao bigint;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        revisao_exclusao := produto_proxima_revisao();
+        INSERT INTO produto_exclusao (id, revisao) VALUES (OLD.id, revisao_exclusao)
+            ON CONFLICT (id) DO UPDATE SET revisao = EXCLUDED.revisao;
+        INSERT INTO produto_evento (produto_id, tipo, revisao, dados)
+            VALUES (OLD.id, 'EXCLUIDO', revisao_exclusao, produto_json(OLD, revisao_exclusao));
+        RETURN OLD;
+    END IF;
+    NEW.revisao := produto_proxima_revisao();
+    INSERT INTO produto_evento (produto_id, tipo, revisao, dados)
+        VALUES (NEW.id, CASE TG_OP WHEN 'INSERT' THEN 'CRIADO' ELSE 'ATUALIZADO' END, NEW.revisao, produto_json(NEW, NEW.revisao));
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP SEQUENCE IF EXISTS produto_revisao_seq;
@@ -0,0 +1,3 @@
+-- o relay reserva o lote num comando curto e entrega fora da transacao; a reserva vence sozinha se a instancia cair
+-- no meio da entrega, e o lote volta a ser entregue por qualquer instancia
+ALTER TABLE produto_evento ADD COLUMN IF NOT EXISTS reservado_ate timestamptz;
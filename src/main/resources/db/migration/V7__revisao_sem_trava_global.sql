@@ -0,0 +1,59 @@
+-- O contador de linha unica de V5 punha as escritas de produtos em fila (todas disputavam a mesma linha ate o
+-- commit) e podia dar deadlock: no UPDATE/DELETE a linha do produto e travada antes do trigger, entao uma transacao
+-- de varias linhas segurava o contador e esperava a linha B enquanto outra, dona de B, esperava o contador.
+-- Agora a revisao volta a vir de uma sequence (para o mesmo produto ela cresce na ordem dos commits, porque o
+-- nextval roda depois da trava da linha) e cada alteracao grava tambem a posicao da sua transacao (xid8).
+-- /alteracoes so entrega posicoes abaixo do xmin do snapshot: toda transacao abaixo dele ja terminou e toda
+-- transacao futura fica acima, entao quem ja leu ate uma posicao nunca perde uma alteracao confirmada depois
+CREATE SEQUENCE IF NOT EXISTS produto_revisao_seq;
+SELECT setval('produto_revisao_seq', valor + 1, false) FROM produto_revisao;
+
+-- posicao = xid + deslocamento, para ficar acima de toda revisao ja entregue: cursores antigos de /alteracoes
+-- continuam validos (as linhas existentes recebem a propria revisao como posicao)
+DO $$
+DECLARE
+    deslocamento bigint;
+BEGIN
+    SELECT GREATEST(0, valor + 1 - pg_current_xact_id()::text::bigint) INTO deslocamento FROM produto_revisao;
+    EXECUTE format('CREATE OR REPLACE FUNCTION produto_posicao(transacao xid8) RETURNS bigint AS %L LANGUAGE sql IMMUTABLE',
+                   'SELECT transacao::text::bigint + ' || deslocamento);
+END;
+$$;
+
+ALTER TABLE produto ADD COLUMN IF NOT EXISTS posicao bigint;
+ALTER TABLE produto_exclusao ADD COLUMN IF NOT EXISTS posicao bigint;
+ALTER TABLE produto DISABLE TRIGGER produto_revisao_trg;
+UPDATE produto SET posicao = revisao WHERE posicao IS NULL;
+ALTER TABLE produto ENABLE TRIGGER produto_revisao_trg;
+UPDATE produto_exclusao SET posicao = revisao WHERE posicao IS NULL;
+ALTER TABLE produto ALTER COLUMN posicao SET NOT NULL;
+ALTER TABLE produto ALTER COLUMN posicao SET DEFAULT 0;
+ALTER TABLE produto_exclusao ALTER COLUMN posicao SET NOT NULL;
+
+CREATE INDEX IF NOT EXISTS produto_posicao_idx ON produto (posicao, id);
+CREATE INDEX IF NOT EXISTS produto_exclusao_posicao_idx ON produto_exclusao (posicao);
+DROP INDEX IF EXISTS produto_revisao_idx;
+DROP INDEX IF EXISTS produto_exclusao_revisao_idx;
+
+CREATE OR REPLACE FUNCTION produto_registrar_revisao() RETURNS trigger AS $$
+DECLARE
+    revisao_exclusao bigint;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        revisao_exclusao := nextval('produto_revisao_seq');
+        INSERT INTO produto_exclusao (id, revisao, posicao) VALUES (OLD.id, revisao_exclusao, produto_posicao(pg_current_xact_id()))
+            ON CONFLICT (id) DO UPDATE SET revisao = EXCLUDED.revisao, posicao = EXCLUDED.posicao;
+        INSERT INTO produto_evento (produto_id, tipo, revisao, dados)
+            VALUES (OLD.id, 'EXCLUIDO', revisao_exclusao, produto_json(OLD, revisao_exclusao));
+        RETURN OLD;
+    END IF;
+    NEW.revisao := nextval('produto_revisao_seq');
+    NEW.posicao := produto_posicao(pg_current_xact_id());
+    INSERT INTO produto_evento (produto_id, tipo, revisao, dados)
+        VALUES (NEW.id, CASE TG_OP WHEN 'INSERT' THEN 'CRIADO' ELSE 'ATUALIZADO' END, NEW.revisao, produto_json(NEW, NEW.revisao));
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP FUNCTION IF EXISTS produto_proxima_revisao();
+DROP TABLE IF EXISTS produto_revisao;
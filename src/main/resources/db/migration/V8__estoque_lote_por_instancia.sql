@@ -0,0 +1,8 @@
+-- o numero do segmento do write-behind e contado por processo: com mais de uma instancia, duas delas gravam o
+-- segmento N e a segunda achava que o seu ja tinha sido aplicado. Cada instancia agora tem um id proprio (gravado
+-- ao lado do journal) e o segmento so e unico dentro dela. As linhas antigas ficam com o id zero, o mesmo que a
+-- instancia usa para os journals de antes desta migracao
+ALTER TABLE produto_estoque_lote ADD COLUMN IF NOT EXISTS instancia uuid NOT NULL DEFAULT '00000000-0000-0000-0000-000000000000';
+ALTER TABLE produto_estoque_lote DROP CONSTRAINT IF EXISTS produto_estoque_lote_pkey;
+ALTER TABLE produto_estoque_lote ADD PRIMARY KEY (instancia, segmento);
+ALTER TABLE produto_estoque_lote ALTER COLUMN instancia DROP DEFAULT;
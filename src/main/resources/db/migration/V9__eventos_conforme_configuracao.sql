@@ -0,0 +1,27 @@
+-- o outbox so recebe eventos quando ha quem os entregue: a aplicacao define produtos.eventos na conexao
+-- (spring.datasource.hikari.connection-init-sql, a partir de produtos.eventos.habilitado) e o trigger nao grava o
+-- evento quando ela e 'false'. Sem a variavel (psql, scripts) o evento continua sendo gravado
+CREATE OR REPLACE FUNCTION produto_registrar_revisao() RETURNS trigger AS $$
+DECLARE
+    revisao_exclusao bigint;
+    gravar_evento boolean := current_setting('produtos.eventos', true) IS DISTINCT FROM 'false';
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        revisao_exclusao := nextval('produto_revisao_seq');
+        INSERT INTO produto_exclusao (id, revisao, posicao) VALUES (OLD.id, revisao_exclusao, produto_posicao(pg_current_xact_id()))
+            ON CONFLICT (id) DO UPDATE SET revisao = EXCLUDED.revisao, posicao = EXCLUDED.posicao;
+        IF gravar_evento THEN
+            INSERT INTO produto_evento (produto_id, tipo, revisao, dados)
+                VALUES (OLD.id, 'EXCLUIDO', revisao_exclusao, produto_json(OLD, revisao_exclusao));
+        END IF;
+        RETURN OLD;
+    END IF;
+    NEW.revisao := nextval('produto_revisao_seq');
+    NEW.posicao := produto_posicao(pg_current_xact_id());
+    IF gravar_evento THEN
+        INSERT INTO produto_evento (produto_id, tipo, revisao, dados)
+            VALUES (NEW.id, CASE TG_OP WHEN 'INSERT' THEN 'CRIADO' ELSE 'ATUALIZADO' END, NEW.revisao, produto_json(NEW, NEW.revisao));
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
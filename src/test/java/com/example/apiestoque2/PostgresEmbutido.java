@@ -0,0 +1,64 @@
+package com.example.apiestoque2;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// PostgreSQL embutido compartilhado pelos testes da JVM (as migracoes do Flyway rodam na primeira subida do contexto).
+// Uso: @DynamicPropertySource static void banco(DynamicPropertyRegistry registro){ PostgresEmbutido.registrar(registro); }
+public final class PostgresEmbutido {
+    private static EmbeddedPostgres banco;
+    private static boolean migrado;
+
+    private PostgresEmbutido(){}
+
+    public static synchronized EmbeddedPostgres banco(){
+        if(banco == null){
+            try{
+                banco = EmbeddedPostgres.builder().start();
+            }catch(IOException ioe){
+                throw new UncheckedIOException("não foi possível iniciar o PostgreSQL embutido", ioe);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try{
+                    banco.close();
+                }catch(IOException ignorada){
+                    // o processo ja esta terminando
+                }
+            }));
+        }
+        return banco;
+    }
+
+    // conexoes direto no banco, fora do pool e do limitador da aplicacao
+    public static DataSource dataSource(){
+        return banco().getPostgresDatabase();
+    }
+
+    // para testes sem contexto do Spring: aplica as migracoes uma vez por JVM
+    public static synchronized DataSource dataSourceMigrado(){
+        if(!migrado){
+            Flyway.configure().dataSource(dataSource()).load().migrate();
+            migrado = true;
+        }
+        return dataSource();
+    }
+
+    // cota e relay de eventos desligados: os testes que dependem deles ligam explicitamente
+    public static void registrar(DynamicPropertyRegistry registro){
+        registro.add("spring.datasource.url", () -> banco().getJdbcUrl("postgres", "postgres"));
+        registro.add("spring.datasource.username", () -> "postgres");
+        registro.add("spring.datasource.password", () -> "");
+        registro.add("produtos.cota.habilitado", () -> "false");
+        registro.add("produtos.eventos.habilitado", () -> "false");
+    }
+
+    public static void limpar(){
+        new JdbcTemplate(dataSourceMigrado()).execute("TRUNCATE produto, produto_exclusao, produto_evento, produto_estoque_lote");
+    }
+}
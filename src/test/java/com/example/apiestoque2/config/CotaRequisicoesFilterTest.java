@@ -0,0 +1,59 @@
+package com.example.apiestoque2.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CotaRequisicoesFilterTest {
+    // leitura: 1/s com rajada de 3; escrita: 1/s sem rajada
+    private final CotaRequisicoesFilter filtro = new CotaRequisicoesFilter(new SimpleMeterRegistry(),
+            1, 3, 1, 1, 1000, Set.of("chave-parceiro"));
+
+    @Test
+    void rajadaPassaEAProximaRecebe429ComRetryAfter() throws Exception {
+        for(int i = 0; i < 3; i++) assertThat(executar("GET", "10.0.0.1", null).getStatus()).isEqualTo(200);
+
+        MockHttpServletResponse rejeitada = executar("GET", "10.0.0.1", null);
+        assertThat(rejeitada.getStatus()).isEqualTo(429);
+        assertThat(rejeitada.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+    }
+
+    @Test
+    void chaveInventadaPorRequisicaoNaoEscapaDaCotaDoIp() throws Exception {
+        for(int i = 0; i < 3; i++) executar("GET", "10.0.0.2", UUID.randomUUID().toString());
+
+        assertThat(executar("GET", "10.0.0.2", UUID.randomUUID().toString()).getStatus()).isEqualTo(429);
+    }
+
+    @Test
+    void chaveConhecidaTemBaldeProprio() throws Exception {
+        for(int i = 0; i < 3; i++) executar("GET", "10.0.0.3", null);
+
+        assertThat(executar("GET", "10.0.0.3", "chave-parceiro").getStatus()).isEqualTo(200);
+        assertThat(executar("GET", "10.0.0.3", null).getStatus()).isEqualTo(429);
+    }
+
+    @Test
+    void leituraEEscritaTemOrcamentosSeparados() throws Exception {
+        assertThat(executar("POST", "10.0.0.4", null).getStatus()).isEqualTo(200);
+        assertThat(executar("POST", "10.0.0.4", null).getStatus()).isEqualTo(429);
+        assertThat(executar("GET", "10.0.0.4", null).getStatus()).isEqualTo(200);
+    }
+
+    private MockHttpServletResponse executar(String metodo, String ip, String chave) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(metodo, "/api/produtos/selecionar");
+        request.setRemoteAddr(ip);
+        if(chave != null) request.addHeader(CotaRequisicoesFilter.CABECALHO_CHAVE, chave);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filtro.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+}
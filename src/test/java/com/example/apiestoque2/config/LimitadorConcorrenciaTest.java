@@ -0,0 +1,62 @@
+package com.example.apiestoque2.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LimitadorConcorrenciaTest {
+    private static final long SEM_ESPERA = 0;
+    private static final long ESPERA_LONGA = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final AtomicInteger esperandoNoPool = new AtomicInteger();
+    private final LimitadorConcorrencia limitador = new LimitadorConcorrencia(10, 20, 50, 5, 5, esperandoNoPool::get);
+
+    @Test
+    void esperaNoPoolReduzOLimiteEEleVoltaQuandoOPoolAlivia(){
+        for(int i = 0; i < 10; i++){
+            limitador.adquirir();
+            limitador.liberar(ESPERA_LONGA);
+        }
+        assertThat(limitador.getLimite()).isLessThan(4);
+
+        // uso no limite sem espera no pool: cresce 1/limite por rodada ate passar do valor inicial
+        for(int rodada = 0; rodada < 1000 && limitador.getLimite() <= 10; rodada++){
+            usarAteOLimite(SEM_ESPERA);
+        }
+        assertThat(limitador.getLimite()).isGreaterThan(10);
+    }
+
+    @Test
+    void usoDemoradoDaConexaoNaoReduzOLimite(){
+        // uma exportacao segura a conexao por minutos, mas a obteve sem esperar
+        for(int i = 0; i < 100; i++) usarAteOLimite(SEM_ESPERA);
+        assertThat(limitador.getLimite()).isGreaterThanOrEqualTo(10);
+    }
+
+    @Test
+    void threadsEsperandoNoPoolReduzemOLimite(){
+        esperandoNoPool.set(3);
+        limitador.adquirir();
+        limitador.liberar(SEM_ESPERA);
+        assertThat(limitador.getLimite()).isLessThan(10);
+    }
+
+    @Test
+    void acimaDoLimiteEsperaNaFilaERejeitaQuandoAEsperaEstoura(){
+        for(int i = 0; i < 10; i++) limitador.adquirir();
+
+        assertThatThrownBy(limitador::adquirir).isInstanceOf(SobrecargaException.class);
+        assertThat(limitador.getRejeitadas()).isEqualTo(1);
+        assertThat(limitador.getEmUso()).isEqualTo(10);
+    }
+
+    private void usarAteOLimite(long esperaPoolNanos){
+        int permissoes = (int) limitador.getLimite();
+        for(int i = 0; i < permissoes; i++) limitador.adquirir();
+        for(int i = 0; i < permissoes; i++) limitador.liberar(esperaPoolNanos);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.apiestoque2.config;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// as tags usam o padrao da rota, e nao a URI com o ID: cada produto consultado nao pode virar uma serie nova
+@SpringBootTest
+@AutoConfigureMockMvc
+class MetricasRequisicaoTest {
+    private static final String ROTA_POR_ID = "/api/produtos/selecionar/{id}";
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private MeterRegistry registry;
+
+    private long primeiro;
+    private long segundo;
+
+    @DynamicPropertySource
+    static void banco(DynamicPropertyRegistry registro){
+        PostgresEmbutido.registrar(registro);
+    }
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        JdbcTemplate jdbc = new JdbcTemplate(PostgresEmbutido.dataSource());
+        primeiro = jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES ('Primeiro', 'teste', 10, 1) RETURNING id", Long.class);
+        segundo = jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES ('Segundo', 'teste', 10, 1) RETURNING id", Long.class);
+    }
+
+    @Test
+    void comandosSqlPorRequisicaoSaoAgrupadosPeloPadraoDaRota() throws Exception {
+        DistributionSummary antes = registry.find("produto.requisicao.comandos.sql").tags("method", "GET", "uri", ROTA_POR_ID).summary();
+        long contagemAntes = antes == null ? 0 : antes.count();
+
+        mockMvc.perform(get("/api/produtos/selecionar/" + primeiro)).andExpect(status().isOk());
+        mockMvc.perform(get("/api/produtos/selecionar/" + segundo)).andExpect(status().isOk());
+
+        DistributionSummary comandos = registry.get("produto.requisicao.comandos.sql").tags("method", "GET", "uri", ROTA_POR_ID).summary();
+        assertThat(comandos.count() - contagemAntes).isEqualTo(2);
+        assertThat(comandos.totalAmount()).isGreaterThanOrEqualTo(2);
+        assertThat(registry.find("produto.requisicao.comandos.sql").tag("uri", "/api/produtos/selecionar/" + primeiro).meters()).isEmpty();
+    }
+
+    @Test
+    void requisicoesForaDaApiNaoSaoContadas() throws Exception {
+        mockMvc.perform(get("/actuator/health"));
+
+        assertThat(registry.find("produto.requisicao.comandos.sql").tag("uri", "/actuator/health").meters()).isEmpty();
+    }
+
+    @Test
+    void servicoELimitadorPublicamSuasMetricas() throws Exception {
+        mockMvc.perform(get("/api/produtos/selecionar/" + primeiro)).andExpect(status().isOk());
+
+        Timer servico = registry.get("produto.service").tags("class", "com.example.apiestoque2.service.ProdutoService", "method", "buscarProduto").timer();
+        assertThat(servico.count()).isPositive();
+        assertThat(registry.get("http.server.requests").tags("uri", ROTA_POR_ID).timer().count()).isPositive();
+        assertThat(registry.get("produto.limitador.limite").gauge().value()).isPositive();
+        assertThat(registry.get("cache.gets").tags("cache", "produtos").meters()).isNotEmpty();
+    }
+}
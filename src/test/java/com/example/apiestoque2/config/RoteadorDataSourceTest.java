@@ -0,0 +1,137 @@
+package com.example.apiestoque2.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// a escolha acontece na primeira conexao da transacao (atras do LazyConnectionDataSourceProxy); aqui a chave
+// escolhida e lida direto, com a transacao e a requisicao simuladas na thread do teste
+class RoteadorDataSourceTest {
+    private static final Duration JANELA = Duration.ofMillis(200);
+
+    private final DataSource primario = mock(DataSource.class);
+    private final List<double[]> atrasos = new ArrayList<>();
+    private RoteadorDataSource roteador;
+
+    @BeforeEach
+    void preparar() throws Exception {
+        List<DataSource> replicas = List.of(replica(), replica());
+        roteador = new RoteadorDataSource(primario, replicas, JANELA, "SELECT atraso", 2.0);
+        roteador.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void limpar(){
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void leituraVaiParaAsReplicasSaudaveisEmRodizioEEscritaParaOPrimario() throws Exception {
+        roteador.verificarReplicas();
+
+        Set<Object> leituras = new HashSet<>();
+        for(int i = 0; i < 4; i++) leituras.add(escolher(true, null));
+
+        assertThat(leituras).containsExactlyInAnyOrder("replica-1", "replica-2");
+        assertThat(escolher(false, null)).isEqualTo("primario");
+    }
+
+    // replicas comecam fora do roteamento ate a primeira verificacao
+    @Test
+    void replicaAtrasadaOuForaDoArSaiDoRoteamento() throws Exception {
+        assertThat(escolher(true, null)).isEqualTo("primario");
+
+        atrasos.get(0)[0] = 10;
+        roteador.verificarReplicas();
+        for(int i = 0; i < 4; i++) assertThat(escolher(true, null)).isEqualTo("replica-2");
+
+        atrasos.get(1)[0] = Double.NaN;
+        roteador.verificarReplicas();
+        assertThat(escolher(true, null)).isEqualTo("primario");
+
+        atrasos.get(0)[0] = 0;
+        roteador.verificarReplicas();
+        assertThat(escolher(true, null)).isEqualTo("replica-1");
+    }
+
+    // read-your-writes: quem escreveu le do primario durante a janela, os outros clientes continuam nas replicas
+    @Test
+    void clienteQueEscreveuLeDoPrimarioDuranteAJanela() throws Exception {
+        roteador.verificarReplicas();
+
+        assertThat(escolher(false, "cliente-a")).isEqualTo("primario");
+
+        assertThat(escolher(true, "cliente-a")).isEqualTo("primario");
+        assertThat(escolher(true, "cliente-b")).isNotEqualTo("primario");
+
+        Thread.sleep(JANELA.toMillis() * 2);
+        assertThat(escolher(true, "cliente-a")).isNotEqualTo("primario");
+    }
+
+    // sem X-Cliente-Id vale o IP; fora de requisicao (tarefas agendadas) nao ha cliente para marcar
+    @Test
+    void semCabecalhoOClienteEOEnderecoEForaDeRequisicaoNaoMarcaNinguem() throws Exception {
+        roteador.verificarReplicas();
+
+        escolher(false, null);
+        assertThat(escolher(true, null)).isNotEqualTo("primario");
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        escolher(false, null);
+        assertThat(escolher(true, null)).isEqualTo("primario");
+    }
+
+    private Object escolher(boolean somenteLeitura, String cliente){
+        if(cliente != null){
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.addHeader(RoteadorDataSource.CABECALHO_CLIENTE, cliente);
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        }
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(somenteLeitura);
+        return roteador.determineCurrentLookupKey();
+    }
+
+    // atraso NaN: a consulta de verificacao falha, como uma replica fora do ar
+    private DataSource replica() throws SQLException {
+        double[] atraso = {0};
+        atrasos.add(atraso);
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenAnswer(invocacao -> {
+            if(Double.isNaN(atraso[0])) throw new SQLException("conexão recusada");
+            Connection conexao = mock(Connection.class);
+            Statement comando = mock(Statement.class);
+            ResultSet resultado = mock(ResultSet.class);
+            when(conexao.createStatement()).thenReturn(comando);
+            when(comando.executeQuery(anyString())).thenReturn(resultado);
+            when(resultado.next()).thenReturn(true);
+            when(resultado.getDouble(1)).thenReturn(atraso[0]);
+            return conexao;
+        });
+        return dataSource;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.apiestoque2.controllers;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// endpoints de estoque contra o PostgreSQL real: cada retirada e um UPDATE condicional, sem ler o produto antes,
+// e a reserva de varios itens e uma transacao so
+@SpringBootTest
+@AutoConfigureMockMvc
+class EstoqueAtomicoTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    private JdbcTemplate jdbc;
+
+    @DynamicPropertySource
+    static void banco(DynamicPropertyRegistry registro){
+        PostgresEmbutido.registrar(registro);
+    }
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        jdbc = new JdbcTemplate(PostgresEmbutido.dataSource());
+    }
+
+    // sem leitura antes do UPDATE nao ha atualizacao perdida: exatamente o saldo e retirado, o resto recebe 409
+    @Test
+    void retiradasConcorrentesNuncaDeixamOEstoqueNegativo() throws Exception {
+        long id = inserir(10);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try{
+            List<Callable<Integer>> retiradas = new ArrayList<>();
+            for(int i = 0; i < 25; i++){
+                retiradas.add(() -> mockMvc.perform(patch("/api/produtos/estoque/" + id + "/retirar").param("quantidade", "1"))
+                        .andReturn().getResponse().getStatus());
+            }
+            int sucesso = 0;
+            int semSaldo = 0;
+            for(Future<Integer> resposta : executor.invokeAll(retiradas)){
+                if(resposta.get() == 200) sucesso++;
+                else if(resposta.get() == 409) semSaldo++;
+            }
+
+            assertThat(sucesso).isEqualTo(10);
+            assertThat(semSaldo).isEqualTo(15);
+            assertThat(estoque(id)).isZero();
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void adicionarSomaNoBancoEProdutoInexistenteResponde404() throws Exception {
+        long id = inserir(3);
+
+        mockMvc.perform(patch("/api/produtos/estoque/" + id + "/adicionar").param("quantidade", "4"))
+                .andExpect(status().isOk());
+        mockMvc.perform(patch("/api/produtos/estoque/" + (id + 1000) + "/adicionar").param("quantidade", "4"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(patch("/api/produtos/estoque/" + id + "/adicionar").param("quantidade", "0"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(estoque(id)).isEqualTo(7);
+    }
+
+    @Test
+    void ajustarSemWriteBehindGravaNaHora() throws Exception {
+        long id = inserir(5);
+
+        mockMvc.perform(patch("/api/produtos/estoque/" + id + "/ajustar").param("delta", "-2"))
+                .andExpect(status().isOk());
+        mockMvc.perform(patch("/api/produtos/estoque/" + id + "/ajustar").param("delta", "-4"))
+                .andExpect(status().isConflict());
+
+        assertThat(estoque(id)).isEqualTo(3);
+    }
+
+    // o segundo item nao tem saldo: o primeiro, ja retirado na mesma transacao, volta
+    @Test
+    void reservaSemSaldoEmUmItemNaoRetiraNenhum() throws Exception {
+        long comSaldo = inserir(5);
+        long semSaldo = inserir(1);
+
+        mockMvc.perform(post("/api/produtos/estoque/reservar").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"id\":" + comSaldo + ",\"quantidade\":2},{\"id\":" + semSaldo + ",\"quantidade\":2}]"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.quantidadeEstoque").value("Estoque insuficiente ou produto com ID " + semSaldo + " não encontrado."));
+
+        assertThat(estoque(comSaldo)).isEqualTo(5);
+        assertThat(estoque(semSaldo)).isEqualTo(1);
+    }
+
+    @Test
+    void reservaSomaIdsRepetidosERetiraTudoDeUmaVez() throws Exception {
+        long primeiro = inserir(5);
+        long segundo = inserir(5);
+
+        mockMvc.perform(post("/api/produtos/estoque/reservar").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"id\":" + segundo + ",\"quantidade\":1},{\"id\":" + primeiro + ",\"quantidade\":2}," +
+                                "{\"id\":" + segundo + ",\"quantidade\":3}]"))
+                .andExpect(status().isOk());
+
+        assertThat(estoque(primeiro)).isEqualTo(3);
+        assertThat(estoque(segundo)).isEqualTo(1);
+    }
+
+    @Test
+    void reservaComTotalAcimaDoIntResponde400() throws Exception {
+        long id = inserir(5);
+
+        mockMvc.perform(post("/api/produtos/estoque/reservar").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"id\":" + id + ",\"quantidade\":" + Integer.MAX_VALUE + "},{\"id\":" + id + ",\"quantidade\":2}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.quantidade").exists());
+        mockMvc.perform(post("/api/produtos/estoque/reservar").contentType(MediaType.APPLICATION_JSON).content("[]"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(estoque(id)).isEqualTo(5);
+    }
+
+    private long inserir(int estoque){
+        return jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES ('Produto', 'teste', 10, ?) RETURNING id", Long.class, estoque);
+    }
+
+    private int estoque(long id){
+        return jdbc.queryForObject("SELECT quantidadeestoque FROM produto WHERE id = ?", Integer.class, id);
+    }
+}
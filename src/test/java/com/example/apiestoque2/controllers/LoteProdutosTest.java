@@ -0,0 +1,146 @@
+package com.example.apiestoque2.controllers;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// busca e exclusao de varios IDs contra o PostgreSQL real; listas acima de 1000 IDs passam por mais de um bloco IN
+@SpringBootTest
+@AutoConfigureMockMvc
+class LoteProdutosTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private JdbcTemplate jdbc;
+
+    @DynamicPropertySource
+    static void banco(DynamicPropertyRegistry registro){
+        PostgresEmbutido.registrar(registro);
+    }
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        jdbc = new JdbcTemplate(PostgresEmbutido.dataSource());
+    }
+
+    @Test
+    void buscaPorIdsNaOrdemPedidaComOsInexistentesAParte() throws Exception {
+        long primeiro = inserir();
+        long segundo = inserir();
+        long inexistente = segundo + 1000;
+
+        JsonNode porQuery = ler(get("/api/produtos/selecionarPorIds").param("ids", segundo + "," + inexistente + "," + primeiro));
+        assertThat(idsDe(porQuery.get("produtos"))).containsExactly(segundo, primeiro);
+        assertThat(valoresDe(porQuery.get("naoEncontrados"))).containsExactly(inexistente);
+
+        JsonNode porCorpo = ler(post("/api/produtos/selecionarPorIds").contentType(MediaType.APPLICATION_JSON)
+                .content("[" + primeiro + "," + inexistente + "]"));
+        assertThat(idsDe(porCorpo.get("produtos"))).containsExactly(primeiro);
+        assertThat(valoresDe(porCorpo.get("naoEncontrados"))).containsExactly(inexistente);
+    }
+
+    @Test
+    void listaMaiorQueUmBlocoVoltaInteira() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for(int i = 0; i < 1500; i++) ids.add(inserir());
+
+        JsonNode resposta = ler(post("/api/produtos/selecionarPorIds").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(ids)));
+
+        assertThat(idsDe(resposta.get("produtos"))).containsExactlyElementsOf(ids);
+        assertThat(resposta.get("naoEncontrados")).isEmpty();
+    }
+
+    @Test
+    void exclusaoEmLoteRemoveOsExistentesEInformaOsQueFaltaram() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for(int i = 0; i < 1200; i++) ids.add(inserir());
+        long mantido = inserir();
+        long inexistente = mantido + 1000;
+        List<Long> pedidos = new ArrayList<>(ids);
+        pedidos.add(inexistente);
+
+        JsonNode resposta = ler(post("/api/produtos/excluirLote").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(pedidos)));
+
+        assertThat(valoresDe(resposta.get("excluidos"))).containsExactlyElementsOf(ids);
+        assertThat(valoresDe(resposta.get("naoEncontrados"))).containsExactly(inexistente);
+        assertThat(jdbc.queryForList("SELECT id FROM produto", Long.class)).containsExactly(mantido);
+    }
+
+    // produto que estava no cache nao volta depois da exclusao em lote
+    @Test
+    void exclusaoEmLoteTiraOsProdutosDoCache() throws Exception {
+        long id = inserir();
+        mockMvc.perform(get("/api/produtos/selecionar/" + id)).andExpect(status().isOk());
+
+        mockMvc.perform(post("/api/produtos/excluirLote").contentType(MediaType.APPLICATION_JSON).content("[" + id + "]"))
+                .andExpect(status().isOk());
+
+        JsonNode resposta = ler(get("/api/produtos/selecionarPorIds").param("ids", String.valueOf(id)));
+        assertThat(resposta.get("produtos")).isEmpty();
+        assertThat(valoresDe(resposta.get("naoEncontrados"))).containsExactly(id);
+    }
+
+    @Test
+    void listaVaziaGrandeDemaisOuComIdInvalidoResponde400() throws Exception {
+        String grandeDemais = LongStream.rangeClosed(1, ProdutoController.TAMANHO_MAXIMO_LOTE_IDS + 1)
+                .mapToObj(String::valueOf).collect(Collectors.joining(",", "[", "]"));
+
+        mockMvc.perform(get("/api/produtos/selecionarPorIds")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/produtos/selecionarPorIds").param("ids", "1,0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.ids").exists());
+        mockMvc.perform(post("/api/produtos/excluirLote").contentType(MediaType.APPLICATION_JSON).content("[]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/produtos/excluirLote").contentType(MediaType.APPLICATION_JSON).content(grandeDemais))
+                .andExpect(status().isBadRequest());
+    }
+
+    private long inserir(){
+        return jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES ('Produto', 'teste', 10, 1) RETURNING id", Long.class);
+    }
+
+    private JsonNode ler(MockHttpServletRequestBuilder requisicao) throws Exception {
+        return objectMapper.readTree(mockMvc.perform(requisicao).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray());
+    }
+
+    private static List<Long> idsDe(JsonNode produtos){
+        List<Long> ids = new ArrayList<>();
+        produtos.forEach(produto -> ids.add(produto.get("id").asLong()));
+        return ids;
+    }
+
+    private static List<Long> valoresDe(JsonNode lista){
+        List<Long> valores = new ArrayList<>();
+        lista.forEach(valor -> valores.add(valor.asLong()));
+        return valores;
+    }
+}
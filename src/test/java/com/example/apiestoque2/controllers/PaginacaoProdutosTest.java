@@ -0,0 +1,120 @@
+package com.example.apiestoque2.controllers;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// paginacao por chave: o cursor e o ultimo ID da pagina, entao excluir ou inserir linhas ja vistas nao desloca as
+// paginas seguintes (com OFFSET um produto pularia ou repetiria)
+@SpringBootTest
+@AutoConfigureMockMvc
+class PaginacaoProdutosTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private JdbcTemplate jdbc;
+    private final List<Long> ids = new ArrayList<>();
+
+    @DynamicPropertySource
+    static void banco(DynamicPropertyRegistry registro){
+        PostgresEmbutido.registrar(registro);
+    }
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        jdbc = new JdbcTemplate(PostgresEmbutido.dataSource());
+        ids.clear();
+        for(int i = 1; i <= 5; i++){
+            ids.add(jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                    "VALUES (?, 'teste', ?, 1) RETURNING id", Long.class, "Produto " + i, i * 10.0));
+        }
+    }
+
+    @Test
+    void paginasSeguemOCursorSemPularNemRepetirComExclusaoNoMeio() throws Exception {
+        JsonNode primeira = pagina(0, 2, null);
+        assertThat(idsDa(primeira)).containsExactly(ids.get(0), ids.get(1));
+        assertThat(primeira.get("proximoCursor").asLong()).isEqualTo(ids.get(1));
+
+        // uma linha ja entregue sai: a proxima pagina continua no mesmo ponto
+        jdbc.update("DELETE FROM produto WHERE id = ?", ids.get(0));
+        JsonNode segunda = pagina(primeira.get("proximoCursor").asLong(), 2, null);
+        assertThat(idsDa(segunda)).containsExactly(ids.get(2), ids.get(3));
+
+        JsonNode ultima = pagina(segunda.get("proximoCursor").asLong(), 2, null);
+        assertThat(idsDa(ultima)).containsExactly(ids.get(4));
+        assertThat(ultima.get("proximoCursor").isNull()).isTrue();
+    }
+
+    @Test
+    void paginaComFieldsTrazSoOsCamposPedidosMaisOId() throws Exception {
+        JsonNode pagina = pagina(ids.get(2), 10, "nome");
+
+        assertThat(idsDa(pagina)).containsExactly(ids.get(3), ids.get(4));
+        JsonNode produto = pagina.get("produtos").get(0);
+        List<String> campos = new ArrayList<>();
+        produto.fieldNames().forEachRemaining(campos::add);
+        assertThat(campos).containsExactlyInAnyOrder("id", "nome");
+        assertThat(produto.get("nome").asText()).isEqualTo("Produto 4");
+    }
+
+    @Test
+    void cursorOuTamanhoInvalidoResponde400() throws Exception {
+        mockMvc.perform(get("/api/produtos/selecionarPaginado").param("cursor", "-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/produtos/selecionarPaginado").param("tamanho", "0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/produtos/selecionarPaginado").param("fields", "inexistente")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void exportacaoNdjsonTrazUmProdutoPorLinhaEmOrdemDeId() throws Exception {
+        MvcResult iniciada = mockMvc.perform(get("/api/produtos/exportar"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult resultado = mockMvc.perform(asyncDispatch(iniciada)).andExpect(status().isOk()).andReturn();
+
+        assertThat(resultado.getResponse().getContentType()).startsWith("application/x-ndjson");
+        List<Long> exportados = new ArrayList<>();
+        for(String linha : resultado.getResponse().getContentAsString(StandardCharsets.UTF_8).split("\n")){
+            if(!linha.isBlank()) exportados.add(objectMapper.readTree(linha).get("id").asLong());
+        }
+        assertThat(exportados).containsExactlyElementsOf(ids);
+    }
+
+    private JsonNode pagina(long cursor, int tamanho, String fields) throws Exception {
+        var requisicao = get("/api/produtos/selecionarPaginado")
+                .param("cursor", String.valueOf(cursor))
+                .param("tamanho", String.valueOf(tamanho));
+        if(fields != null) requisicao.param("fields", fields);
+        MvcResult resultado = mockMvc.perform(requisicao).andExpect(status().isOk()).andReturn();
+        return objectMapper.readTree(resultado.getResponse().getContentAsByteArray());
+    }
+
+    private static List<Long> idsDa(JsonNode pagina){
+        List<Long> ids = new ArrayList<>();
+        pagina.get("produtos").forEach(produto -> ids.add(produto.get("id").asLong()));
+        return ids;
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.apiestoque2.controllers;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// /alteracoes so avanca sobre transacoes terminadas: quem leu no meio de duas transacoes concorrentes recebe as duas
+// alteracoes na consulta seguinte, sem que as escritas esperem umas pelas outras
+@SpringBootTest
+@AutoConfigureMockMvc
+class RevisaoCatalogoTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private JdbcTemplate jdbc;
+    private long primeiro;
+    private long segundo;
+
+    @DynamicPropertySource
+    static void banco(DynamicPropertyRegistry registro){
+        PostgresEmbutido.registrar(registro);
+    }
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        jdbc = new JdbcTemplate(PostgresEmbutido.dataSource());
+        primeiro = inserir("Primeiro");
+        segundo = inserir("Segundo");
+    }
+
+    @Test
+    void transacaoMaisAntigaNaoFicaParaTrasDaMaisNova() throws Exception {
+        long inicial = alteracoes(0).get("revisao").asLong();
+
+        try(Connection a = PostgresEmbutido.dataSource().getConnection();
+            Connection b = PostgresEmbutido.dataSource().getConnection()){
+            a.setAutoCommit(false);
+            b.setAutoCommit(false);
+            // A altera primeiro e fica aberta; B altera outro produto e faz commit antes de A, sem esperar por ela
+            executar(a, "UPDATE produto SET preco = preco + 1 WHERE id = " + primeiro);
+            executar(b, "UPDATE produto SET preco = preco + 1 WHERE id = " + segundo);
+            b.commit();
+
+            JsonNode intermediaria = alteracoes(inicial);
+            assertThat(intermediaria.get("alterados")).isEmpty();
+            assertThat(intermediaria.get("temMais").asBoolean()).isFalse();
+
+            a.commit();
+
+            JsonNode depois = alteracoes(intermediaria.get("revisao").asLong());
+            Set<Long> vistos = new HashSet<>();
+            depois.get("alterados").forEach(produto -> vistos.add(produto.get("id").asLong()));
+            assertThat(vistos).containsExactlyInAnyOrder(primeiro, segundo);
+            assertThat(depois.get("revisao").asLong()).isGreaterThan(intermediaria.get("revisao").asLong());
+        }
+    }
+
+    // com o contador de V5 isto dava deadlock: a reserva travava a linha 1 e o contador, a atualizacao travava a
+    // linha 2 e esperava o contador, e a reserva esperava a linha 2
+    @Test
+    void reservaDeDuasLinhasConcorrendoComAtualizacaoDeUmaNaoDaDeadlock() throws Exception {
+        try(Connection reserva = PostgresEmbutido.dataSource().getConnection();
+            Connection atualizacao = PostgresEmbutido.dataSource().getConnection()){
+            reserva.setAutoCommit(false);
+            atualizacao.setAutoCommit(false);
+            // mesmos comandos de ArmazenamentoProdutosJpa.reservarEstoque, em ordem de ID
+            String retirar = "UPDATE produto SET quantidadeestoque = quantidadeestoque - 1 WHERE quantidadeestoque >= 1 AND id = ";
+            executar(reserva, retirar + primeiro);
+
+            CompletableFuture.runAsync(() -> {
+                try{
+                    executar(atualizacao, "UPDATE produto SET preco = 20 WHERE id = " + segundo);
+                }catch(Exception e){
+                    throw new IllegalStateException(e);
+                }
+            }).get(5, TimeUnit.SECONDS);
+
+            CompletableFuture<Void> segundaLinha = CompletableFuture.runAsync(() -> {
+                try{
+                    executar(reserva, retirar + segundo);
+                    reserva.commit();
+                }catch(Exception e){
+                    throw new IllegalStateException(e);
+                }
+            });
+            aguardarEsperaPorTrava();
+            atualizacao.commit();
+            segundaLinha.get(10, TimeUnit.SECONDS);
+        }
+
+        assertThat(jdbc.queryForList("SELECT quantidadeestoque FROM produto ORDER BY id", Integer.class)).containsExactly(4, 4);
+        assertThat(jdbc.queryForObject("SELECT preco FROM produto WHERE id = ?", Double.class, segundo)).isEqualTo(20);
+    }
+
+    // uma transacao com mais linhas que o tamanho da pagina vem inteira, senao o resto ficaria para tras do cursor
+    @Test
+    void paginaNaoDivideUmaTransacao() throws Exception {
+        long inicial = alteracoes(0).get("revisao").asLong();
+        jdbc.update("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES ('Lote 1', 'teste', 1, 1), ('Lote 2', 'teste', 1, 1), ('Lote 3', 'teste', 1, 1)");
+
+        JsonNode pagina = alteracoes(inicial, 2);
+
+        assertThat(pagina.get("alterados")).hasSize(3);
+        assertThat(pagina.get("temMais").asBoolean()).isFalse();
+        assertThat(alteracoes(pagina.get("revisao").asLong()).get("alterados")).isEmpty();
+    }
+
+    @Test
+    void etagDoCatalogoMudaAposExclusaoERespondeNaoModificadoSemAlteracao() throws Exception {
+        String etag = etagCatalogo();
+        // fraco, para o Tomcat poder comprimir a resposta
+        assertThat(etag).startsWith("W/\"catalogo-");
+        mockMvc.perform(get("/api/produtos/selecionar").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        jdbc.update("DELETE FROM produto WHERE id = ?", primeiro);
+
+        mockMvc.perform(get("/api/produtos/selecionar").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+        JsonNode alteracoes = alteracoes(0);
+        assertThat(alteracoes.get("excluidos")).extracting(JsonNode::asLong).containsExactly(primeiro);
+    }
+
+    // uma transacao aberta segura o xmin: a posicao confirmada fica parada, mas o catalogo ja mostra o commit de B,
+    // entao o ETag tem que mudar junto com o corpo
+    @Test
+    void etagDoCatalogoAcompanhaOCorpoComTransacaoAntigaAberta() throws Exception {
+        try(Connection a = PostgresEmbutido.dataSource().getConnection()){
+            a.setAutoCommit(false);
+            executar(a, "UPDATE produto SET preco = preco + 1 WHERE id = " + primeiro);
+
+            MvcResult antes = mockMvc.perform(get("/api/produtos/selecionar")).andExpect(status().isOk()).andReturn();
+            String etag = antes.getResponse().getHeader(HttpHeaders.ETAG);
+            jdbc.update("UPDATE produto SET preco = 50 WHERE id = ?", segundo);
+
+            MvcResult depois = mockMvc.perform(get("/api/produtos/selecionar").header(HttpHeaders.IF_NONE_MATCH, etag))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            assertThat(depois.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+            JsonNode produtos = objectMapper.readTree(depois.getResponse().getContentAsByteArray());
+            produtos.forEach(produto -> {
+                if(produto.get("id").asLong() == segundo) assertThat(produto.get("preco").asDouble()).isEqualTo(50);
+            });
+            a.rollback();
+        }
+    }
+
+    @Test
+    void etagDoProdutoAcompanhaARevisao() throws Exception {
+        String etag = mockMvc.perform(get("/api/produtos/selecionar/" + primeiro))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/api/produtos/selecionar/" + primeiro).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(patch("/api/produtos/atualizarParcial/" + primeiro)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"preco\":99}"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/produtos/selecionar/" + primeiro).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+    }
+
+    private long inserir(String nome){
+        return jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES (?, 'teste', 10, 5) RETURNING id", Long.class, nome);
+    }
+
+    // a segunda linha da reserva esta parada na trava da linha, atras da atualizacao
+    private void aguardarEsperaPorTrava() throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(System.nanoTime() < limite){
+            Integer esperando = jdbc.queryForObject("SELECT count(*) FROM pg_stat_activity " +
+                    "WHERE wait_event_type = 'Lock' AND query LIKE 'UPDATE produto SET%'", Integer.class);
+            if(esperando != null && esperando > 0) return;
+            Thread.sleep(20);
+        }
+        throw new AssertionError("a reserva não esperou pela atualização");
+    }
+
+    private JsonNode alteracoes(long desde) throws Exception {
+        return alteracoes(desde, 1000);
+    }
+
+    private JsonNode alteracoes(long desde, int tamanho) throws Exception {
+        MvcResult resultado = mockMvc.perform(get("/api/produtos/alteracoes")
+                        .param("desde", String.valueOf(desde))
+                        .param("tamanho", String.valueOf(tamanho)))
+                .andExpect(status().isOk())
+                .andReturn();
+        return objectMapper.readTree(resultado.getResponse().getContentAsByteArray());
+    }
+
+    private String etagCatalogo() throws Exception {
+        return mockMvc.perform(get("/api/produtos/selecionar"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    private static void executar(Connection conexao, String sql) throws Exception {
+        try(Statement comando = conexao.createStatement()){
+            comando.executeUpdate(sql);
+        }
+    }
+}
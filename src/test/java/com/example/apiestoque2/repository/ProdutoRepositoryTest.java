@@ -0,0 +1,134 @@
+package com.example.apiestoque2.repository;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import com.example.apiestoque2.models.Produto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// SQL nativo contra o PostgreSQL com as migracoes reais: DELETE ... RETURNING e o trigger de exclusao de V3.
+// Sem a transacao do teste: cada chamada do repositorio faz o proprio commit, como na aplicacao
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProdutoRepositoryTest {
+    @Autowired
+    private ProdutoRepository produtoRepository;
+
+    private JdbcTemplate jdbc;
+
+    @DynamicPropertySource
+    static void banco(DynamicPropertyRegistry registro){
+        PostgresEmbutido.registrar(registro);
+    }
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        jdbc = new JdbcTemplate(PostgresEmbutido.dataSource());
+    }
+
+    @Test
+    void excluirRetornandoDevolveOProdutoEOTriggerRegistraAExclusao(){
+        Produto salvo = produtoRepository.save(new Produto("Caneta", "azul", 3.5, 10));
+
+        Produto excluido = produtoRepository.excluirRetornando(salvo.getId()).orElseThrow();
+
+        assertThat(excluido.getId()).isEqualTo(salvo.getId());
+        assertThat(excluido.getNome()).isEqualTo("Caneta");
+        assertThat(excluido.getQuantidadeEstoque()).isEqualTo(10);
+        assertThat(produtoRepository.existsById(salvo.getId())).isFalse();
+        assertThat(jdbc.queryForObject("SELECT count(*) FROM produto_exclusao WHERE id = ?", Long.class, salvo.getId())).isEqualTo(1);
+        assertThat(produtoRepository.excluirRetornando(salvo.getId())).isEmpty();
+    }
+
+    @Test
+    void excluirTodosRetornandoDevolveSoOsIdsExcluidos(){
+        long primeiro = produtoRepository.save(new Produto("A", "a", 1, 1)).getId();
+        long segundo = produtoRepository.save(new Produto("B", "b", 2, 1)).getId();
+        long terceiro = produtoRepository.save(new Produto("C", "c", 3, 1)).getId();
+
+        List<Long> excluidos = produtoRepository.excluirTodosRetornando(List.of(primeiro, terceiro, terceiro + 1000));
+
+        assertThat(excluidos).containsExactlyInAnyOrder(primeiro, terceiro);
+        assertThat(produtoRepository.findAll()).extracting(Produto::getId).containsExactly(segundo);
+        assertThat(jdbc.queryForList("SELECT id FROM produto_exclusao", Long.class)).containsExactlyInAnyOrder(primeiro, terceiro);
+    }
+
+    // termo no nome pesa mais que so na descricao; trecho de palavra entra pelo LIKE de trigramas
+    @Test
+    void buscarPorTermoOrdenaPorRelevanciaEAplicaOsFiltros(){
+        long soNaDescricao = produtoRepository.save(new Produto("Estojo", "acompanha caneta azul", 12, 5)).getId();
+        long noNome = produtoRepository.save(new Produto("Caneta azul", "esferografica", 3, 5)).getId();
+        long trecho = produtoRepository.save(new Produto("Canetas coloridas", "kit", 20, 5)).getId();
+        produtoRepository.save(new Produto("Caneta cara", "tinteiro", 300, 5));
+        produtoRepository.save(new Produto("Caneta sem estoque", "gel", 4, 0));
+        produtoRepository.save(new Produto("Lapis", "grafite", 2, 5));
+
+        List<Produto> encontrados = produtoRepository.buscarPorTermo("caneta", "%caneta%", 0, 100, 1, 10, 0);
+
+        assertThat(encontrados).extracting(Produto::getId).containsExactlyInAnyOrder(noNome, trecho, soNaDescricao);
+        assertThat(encontrados.get(0).getId()).isEqualTo(noNome);
+        assertThat(encontrados.get(2).getId()).isEqualTo(soNaDescricao);
+        assertThat(produtoRepository.buscarPorTermo("caneta", "%caneta%", 0, 100, 1, 2, 2))
+                .extracting(Produto::getId).containsExactly(soNaDescricao);
+        assertThat(produtoRepository.buscarCamposPorTermo(List.of("id", "nome"), "caneta", "%caneta%", 0, 100, 1, 1, 0))
+                .containsExactly(Map.of("id", noNome, "nome", "Caneta azul"));
+    }
+
+    // sem varredura sequencial o plano tem que achar o termo pelos indices GIN de V2 (trigramas e texto completo)
+    @Test
+    void buscarPorTermoUsaOsIndicesDeBusca(){
+        produtoRepository.save(new Produto("Caneta azul", "esferografica", 3, 5));
+
+        List<String> plano = jdbc.execute((ConnectionCallback<List<String>>) conexao -> {
+            try(Statement comando = conexao.createStatement()){
+                comando.execute("SET enable_seqscan = off");
+                List<String> linhas = new ArrayList<>();
+                try(ResultSet resultado = comando.executeQuery("EXPLAIN SELECT * FROM produto p " +
+                        ProdutoRepository.FILTRO_BUSCA_POR_TERMO.replace(":padrao", "'%CANETA%'").replace(":termo", "'caneta'")
+                                .replace(":precoMinimo", "0").replace(":precoMaximo", "100").replace(":estoqueMinimo", "0")
+                                .replace(":tamanho", "10").replace(":deslocamento", "0"))){
+                    while(resultado.next()) linhas.add(resultado.getString(1));
+                }
+                comando.execute("RESET enable_seqscan");
+                return linhas;
+            }
+        });
+
+        assertThat(String.join("\n", plano)).contains("produto_nome_trgm_idx").contains("produto_texto_idx");
+    }
+
+    // o nome vai como parametro: aspas e maiusculas nao mudam o resultado
+    @Test
+    void buscarCamposPorNomeEPrecoMenorQueFiltraComoAConsultaDerivada(){
+        produtoRepository.save(new Produto("Caderno D'Agua", "capa dura", 20, 5));
+        produtoRepository.save(new Produto("caderno simples", "brochura", 8, 5));
+        produtoRepository.save(new Produto("Caderno caro", "couro", 90, 5));
+        produtoRepository.save(new Produto("Lapis", "grafite", 2, 5));
+
+        List<Map<String, Object>> campos = produtoRepository.buscarCamposPorNomeEPrecoMenorQue(List.of("nome", "preco"), "CADERNO%", 50);
+
+        assertThat(campos).extracting(produto -> produto.get("nome"))
+                .containsExactlyInAnyOrderElementsOf(produtoRepository.findByNomeLikeIgnoreCaseAndPrecoLessThan("CADERNO%", 50)
+                        .stream().map(Produto::getNome).toList())
+                .containsExactlyInAnyOrder("Caderno D'Agua", "caderno simples");
+        assertThat(produtoRepository.buscarCamposPorNomeEPrecoMenorQue(List.of("id"), "%d'agua", 50)).hasSize(1);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.AgregadosEstoque;
+import com.example.apiestoque2.models.FaixaPreco;
+import com.example.apiestoque2.models.Produto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+// os totais mantidos alteracao a alteracao devem bater com os da reconciliacao, que relê o catalogo
+class AgregacaoEstoqueTest {
+    private final Map<Long, Produto> catalogo = new LinkedHashMap<>();
+    private ArmazenamentoProdutos armazenamento;
+    private AgregacaoEstoque agregacao;
+
+    @BeforeEach
+    void preparar(){
+        armazenamento = mock(ArmazenamentoProdutos.class);
+        when(armazenamento.listarCampos(anyList(), anyLong(), any())).thenAnswer(invocacao -> pagina(invocacao.getArgument(1)));
+        agregacao = new AgregacaoEstoque(armazenamento, new SimpleMeterRegistry(), new int[]{1, 10}, new double[]{50, 100}, 60000);
+    }
+
+    @Test
+    void alteracoesIncrementaisBatemComAReconciliacao(){
+        gravar(new Produto(1, "A", "", 20, 5));
+        gravar(new Produto(2, "B", "", 70, 0));
+        gravar(new Produto(3, "C", "", 150, 30));
+        agregacao.reconciliar();
+
+        gravar(new Produto(2, "B", "", 120, 8));
+        ajustar(1, -5);
+        ajustar(3, 12);
+        catalogo.remove(1L);
+        agregacao.remover(1);
+        gravar(new Produto(4, "D", "", 50, 1));
+        AgregadosEstoque incremental = agregacao.consultar();
+
+        agregacao.reconciliar();
+        AgregadosEstoque reconciliado = agregacao.consultar();
+
+        assertThat(incremental.getProdutos()).isEqualTo(3).isEqualTo(reconciliado.getProdutos());
+        assertThat(incremental.getUnidades()).isEqualTo(8 + 42 + 1).isEqualTo(reconciliado.getUnidades());
+        assertThat(incremental.getValorTotal()).isCloseTo(reconciliado.getValorTotal(), within(1e-6));
+        assertThat(incremental.getEstoqueAbaixoDe()).isEqualTo(reconciliado.getEstoqueAbaixoDe()).containsEntry(10, 2L);
+        assertThat(incremental.getFaixasPreco()).extracting(FaixaPreco::getProdutos).containsExactly(0L, 1L, 2L);
+        assertThat(reconciliado.getFaixasPreco()).extracting(FaixaPreco::getProdutos).containsExactly(0L, 1L, 2L);
+    }
+
+    @Test
+    void alteracaoDuranteAReconciliacaoNaoSePerde(){
+        gravar(new Produto(1, "A", "", 20, 5));
+        agregacao.reconciliar();
+        // a pagina ja foi lida quando o estoque muda
+        when(armazenamento.listarCampos(anyList(), anyLong(), any())).thenAnswer(invocacao -> {
+            List<Map<String, Object>> lida = pagina(invocacao.getArgument(1));
+            ajustar(1, 7);
+            return lida;
+        });
+
+        agregacao.reconciliar();
+
+        assertThat(agregacao.consultar().getUnidades()).isEqualTo(12);
+    }
+
+    // o treino do CDS sai no refresh, antes do start: criar o bean nao pode ler o catalogo
+    @Test
+    void reconciliacaoSoComecaNoStart(){
+        verifyNoInteractions(armazenamento);
+
+        agregacao.start();
+        try{
+            verify(armazenamento, timeout(5000)).listarCampos(anyList(), anyLong(), any());
+            assertThat(agregacao.isRunning()).isTrue();
+        }finally{
+            agregacao.stop();
+            agregacao.destroy();
+        }
+        assertThat(agregacao.isRunning()).isFalse();
+    }
+
+    private void gravar(Produto produto){
+        catalogo.put(produto.getId(), produto);
+        agregacao.registrar(produto);
+    }
+
+    private void ajustar(long id, int delta){
+        Produto produto = catalogo.get(id);
+        produto.setQuantidadeEstoque(produto.getQuantidadeEstoque() + delta);
+        agregacao.ajustarEstoque(id, delta);
+    }
+
+    private List<Map<String, Object>> pagina(long cursor){
+        List<Map<String, Object>> linhas = new ArrayList<>();
+        catalogo.values().stream().filter(produto -> produto.getId() > cursor).forEach(produto ->
+                linhas.add(Map.of("id", produto.getId(), "preco", produto.getPreco(), "quantidadeEstoque", produto.getQuantidadeEstoque())));
+        return linhas;
+    }
+}
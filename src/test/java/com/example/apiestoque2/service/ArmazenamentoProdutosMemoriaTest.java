@@ -0,0 +1,113 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.Produto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// journal pequeno (64 bytes): cada gravarSnapshotSeNecessario grava um snapshot. Uma instancia nova no mesmo
+// diretorio, sem o destroy da anterior, faz o papel da subida depois de uma queda do processo
+class ArmazenamentoProdutosMemoriaTest {
+    private static final int JOURNAL_BYTES = 64;
+
+    @TempDir
+    Path diretorio;
+
+    @Test
+    void snapshotMaisJournalRestauramOEstadoSemReusarIdsExcluidos() throws Exception {
+        ArmazenamentoProdutosMemoria antes = novo();
+        antes.salvar(new Produto("A", "a", 10, 5));
+        antes.salvar(new Produto("B", "b", 20, 5));
+        antes.salvar(new Produto("C", "c", 30, 5));
+        antes.excluir(3);
+        antes.gravarSnapshotSeNecessario();
+
+        antes.salvar(new Produto(1, "A2", "a", 15, 5));
+        antes.retirarEstoque(1, 2);
+        antes.excluir(2);
+        long revisao = antes.buscarRevisaoAtual();
+
+        ArmazenamentoProdutosMemoria depois = novo();
+        Produto restaurado = depois.buscarPorId(1).orElseThrow();
+        assertThat(restaurado.getNome()).isEqualTo("A2");
+        assertThat(restaurado.getPreco()).isEqualTo(15);
+        assertThat(restaurado.getQuantidadeEstoque()).isEqualTo(3);
+        assertThat(depois.buscarPorId(2)).isEmpty();
+        assertThat(depois.buscarPorId(3)).isEmpty();
+        assertThat(depois.buscarRevisaoAtual()).isEqualTo(revisao);
+        assertThat(depois.salvar(new Produto("D", "d", 40, 1)).getId()).isEqualTo(4);
+    }
+
+    @Test
+    void idDoUltimoProdutoExcluidoNaoVoltaDepoisDoSnapshot() throws Exception {
+        ArmazenamentoProdutosMemoria antes = novo();
+        antes.salvar(new Produto("A", "a", 10, 5));
+        antes.salvar(new Produto("B", "b", 20, 5));
+        antes.excluir(2);
+        antes.destroy();
+
+        assertThat(Files.exists(diretorio.resolve("produtos.snapshot"))).isTrue();
+        ArmazenamentoProdutosMemoria depois = novo();
+        assertThat(depois.buscarTodos()).extracting(Produto::getId).containsExactly(1L);
+        assertThat(depois.salvar(new Produto("C", "c", 30, 1)).getId()).isEqualTo(3);
+    }
+
+    @Test
+    void alteracoesDuranteOSnapshotNaoSePerdem() throws Exception {
+        ArmazenamentoProdutosMemoria antes = novo();
+        antes.salvar(new Produto("A", "a", 10, 0));
+        antes.salvar(new Produto("B", "b", 20, 0));
+        int alteracoes = 20_000;
+
+        CompletableFuture<Void> escritor = CompletableFuture.runAsync(() -> {
+            for(int i = 0; i < alteracoes; i++){
+                antes.adicionarEstoque(1 + (i & 1), 1);
+            }
+        });
+        while(!escritor.isDone()) antes.gravarSnapshotSeNecessario();
+        escritor.get();
+        antes.gravarSnapshotSeNecessario();
+
+        ArmazenamentoProdutosMemoria depois = novo();
+        assertThat(depois.buscarPorId(1).orElseThrow().getQuantidadeEstoque()).isEqualTo(alteracoes / 2);
+        assertThat(depois.buscarPorId(2).orElseThrow().getQuantidadeEstoque()).isEqualTo(alteracoes / 2);
+        assertThat(depois.buscarRevisaoAtual()).isEqualTo(antes.buscarRevisaoAtual());
+    }
+
+    // o snapshot falha depois da troca de journal: a subida usa o snapshot anterior e reaplica os dois journais
+    @Test
+    void snapshotQueFalhouDepoisDaTrocaDeJournalNaoPerdeAlteracoes() throws Exception {
+        ArmazenamentoProdutosMemoria antes = novo();
+        antes.salvar(new Produto("A", "a", 10, 5));
+        antes.gravarSnapshotSeNecessario();
+        antes.salvar(new Produto("B", "b", 20, 5));
+        antes.retirarEstoque(1, 1);
+
+        Path temporario = Files.createDirectory(diretorio.resolve("produtos.snapshot.tmp"));
+        assertThatThrownBy(antes::gravarSnapshotSeNecessario).isInstanceOf(UncheckedIOException.class);
+        antes.retirarEstoque(1, 1);
+        antes.excluir(2);
+
+        ArmazenamentoProdutosMemoria depois = novo();
+        assertThat(depois.buscarPorId(1).orElseThrow().getQuantidadeEstoque()).isEqualTo(3);
+        assertThat(depois.buscarPorId(2)).isEmpty();
+
+        Files.delete(temporario);
+        depois.gravarSnapshotSeNecessario();
+        depois.adicionarEstoque(1, 10);
+        ArmazenamentoProdutosMemoria terceira = novo();
+        assertThat(terceira.buscarPorId(1).orElseThrow().getQuantidadeEstoque()).isEqualTo(13);
+        assertThat(terceira.salvar(new Produto("C", "c", 30, 1)).getId()).isEqualTo(3);
+    }
+
+    private ArmazenamentoProdutosMemoria novo() throws Exception {
+        return new ArmazenamentoProdutosMemoria(diretorio.toString(), JOURNAL_BYTES);
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+class EstoqueWriteBehindTest {
+    @TempDir
+    Path diretorio;
+
+    private JdbcTemplate jdbc;
+    private AgregacaoEstoque agregacao;
+    private EstoqueWriteBehind writeBehind;
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        jdbc = new JdbcTemplate(PostgresEmbutido.dataSourceMigrado());
+        agregacao = mock(AgregacaoEstoque.class);
+    }
+
+    @AfterEach
+    void encerrar(){
+        if(writeBehind != null) writeBehind.destroy();
+        jdbc.execute("DROP TRIGGER IF EXISTS falhar_trg ON produto");
+    }
+
+    @Test
+    void ajusteSincronoEsperaOUpdateEApagaOJournal() throws Exception {
+        long id = inserir(10);
+        iniciar(5);
+
+        CompletableFuture<Void> ajuste = writeBehind.ajustar(id, 3);
+        writeBehind.ajustar(id, -1);
+        writeBehind.descarregar();
+
+        assertThat(ajuste).isCompleted();
+        assertThat(estoque(id)).isEqualTo(12);
+        try(var arquivos = Files.list(diretorio)){
+            // so o journal do segmento aberto
+            assertThat(arquivos.filter(Files::isRegularFile).count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void totalDescartadoFalhaSoOAjusteDoProduto() throws Exception {
+        long semSaldo = inserir(5);
+        long comSaldo = inserir(5);
+        long quaseNoLimite = inserir(Integer.MAX_VALUE - 1);
+        iniciar(5);
+
+        CompletableFuture<Void> retirada = writeBehind.ajustar(semSaldo, -10);
+        CompletableFuture<Void> estouro = writeBehind.ajustar(quaseNoLimite, 5);
+        CompletableFuture<Void> valido = writeBehind.ajustar(comSaldo, -5);
+        writeBehind.descarregar();
+
+        assertThatThrownBy(retirada::get).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(EstoqueInsuficienteException.class);
+        assertThatThrownBy(estouro::get).hasCauseInstanceOf(EstoqueInsuficienteException.class);
+        assertThat(valido).isCompleted().isNotCompletedExceptionally();
+        assertThat(estoque(semSaldo)).isEqualTo(5);
+        assertThat(estoque(quaseNoLimite)).isEqualTo(Integer.MAX_VALUE - 1);
+        assertThat(estoque(comSaldo)).isZero();
+        // os agregados recebem so o que foi gravado
+        verify(agregacao).ajustarEstoque(comSaldo, -5);
+        verifyNoMoreInteractions(agregacao);
+    }
+
+    // o total liquido (-10) falharia inteiro; a reposicao entra e so a retirada sem saldo e recusada
+    @Test
+    void retiradaSemSaldoNaoDescartaAReposicaoDoMesmoSegmento() throws Exception {
+        long id = inserir(0);
+        iniciar(5);
+
+        CompletableFuture<Void> reposicao = writeBehind.ajustar(id, 10);
+        CompletableFuture<Void> retirada = writeBehind.ajustar(id, -20);
+        writeBehind.descarregar();
+
+        assertThat(reposicao).isCompleted().isNotCompletedExceptionally();
+        assertThatThrownBy(retirada::get).hasCauseInstanceOf(EstoqueInsuficienteException.class);
+        assertThat(estoque(id)).isEqualTo(10);
+        verify(agregacao).ajustarEstoque(id, 10);
+        verifyNoMoreInteractions(agregacao);
+    }
+
+    @Test
+    void journalQueSobrouDeUmaQuedaEReaplicadoUmaVez() throws Exception {
+        long id = inserir(10);
+        iniciar(5);
+        writeBehind.destroy();
+        UUID instancia = UUID.fromString(Files.readString(diretorio.resolve("instancia")).trim());
+        Files.deleteIfExists(diretorio.resolve("estoque-1.journal"));
+        gravarJournal(7, id, 4);
+        gravarJournal(8, id, 100);
+        // o segmento 8 ja tinha sido gravado antes da queda, so o journal nao foi apagado
+        jdbc.update("INSERT INTO produto_estoque_lote (instancia, segmento) VALUES (?, 8)", instancia);
+
+        iniciar(5);
+
+        assertThat(estoque(id)).isEqualTo(14);
+        assertThat(diretorio.resolve("estoque-7.journal")).doesNotExist();
+        assertThat(diretorio.resolve("estoque-8.journal")).doesNotExist();
+        assertThat(diretorio.resolve("estoque-9.journal")).exists();
+    }
+
+    // journals de antes do id por instancia (diretorio sem o arquivo) usam os registros antigos, sem instancia
+    @Test
+    void journalDeAntesDoIdPorInstanciaUsaOsRegistrosAntigos() throws Exception {
+        long id = inserir(10);
+        gravarJournal(3, id, 4);
+        gravarJournal(4, id, 100);
+        jdbc.update("INSERT INTO produto_estoque_lote (instancia, segmento) VALUES ('00000000-0000-0000-0000-000000000000', 4)");
+
+        iniciar(5);
+
+        assertThat(estoque(id)).isEqualTo(14);
+        assertThat(diretorio.resolve("instancia")).exists();
+        assertThat(diretorio.resolve("estoque-5.journal")).exists();
+    }
+
+    // as duas instancias gravam o segmento 1; a segunda nao pode confundir o dela com o da primeira
+    @Test
+    void duasInstanciasNoMesmoBancoGravamOsPropriosSegmentos() throws Exception {
+        long id = inserir(10);
+        EstoqueWriteBehind primeira = novo(diretorio.resolve("a"), 5);
+        EstoqueWriteBehind segunda = novo(diretorio.resolve("b"), 5);
+        try{
+            CompletableFuture<Void> daPrimeira = primeira.ajustar(id, 3);
+            CompletableFuture<Void> daSegunda = segunda.ajustar(id, 4);
+            primeira.descarregar();
+            segunda.descarregar();
+
+            assertThat(daPrimeira).isCompleted().isNotCompletedExceptionally();
+            assertThat(daSegunda).isCompleted().isNotCompletedExceptionally();
+            assertThat(estoque(id)).isEqualTo(17);
+            assertThat(jdbc.queryForObject("SELECT count(DISTINCT instancia) FROM produto_estoque_lote WHERE segmento = 1", Integer.class))
+                    .isEqualTo(2);
+        }finally{
+            primeira.destroy();
+            segunda.destroy();
+        }
+    }
+
+    @Test
+    void segmentoQueSempreFalhaVaiParaQuarentenaSemSegurarOsSeguintes() throws Exception {
+        long problematico = inserir(10);
+        long outro = inserir(10);
+        jdbc.execute("CREATE OR REPLACE FUNCTION falhar() RETURNS trigger AS $$ BEGIN RAISE EXCEPTION 'falha de teste'; END; $$ LANGUAGE plpgsql");
+        jdbc.execute("CREATE TRIGGER falhar_trg BEFORE UPDATE ON produto FOR EACH ROW WHEN (OLD.id = " + problematico + ") EXECUTE FUNCTION falhar()");
+        iniciar(2);
+
+        CompletableFuture<Void> preso = writeBehind.ajustar(problematico, 1);
+        writeBehind.descarregar();
+        assertThat(preso).isNotDone();
+        CompletableFuture<Void> seguinte = writeBehind.ajustar(outro, 1);
+        writeBehind.descarregar();
+
+        assertThat(preso).isCompletedExceptionally();
+        assertThat(seguinte).isCompleted().isNotCompletedExceptionally();
+        assertThat(estoque(outro)).isEqualTo(11);
+        try(var quarentena = Files.list(diretorio.resolve("quarentena"))){
+            assertThat(quarentena.count()).isEqualTo(1);
+        }
+    }
+
+    private void iniciar(int tentativasMaximas){
+        writeBehind = novo(diretorio, tentativasMaximas);
+    }
+
+    private EstoqueWriteBehind novo(Path diretorio, int tentativasMaximas){
+        EstoqueWriteBehind instancia = new EstoqueWriteBehind(jdbc, new DataSourceTransactionManager(PostgresEmbutido.dataSourceMigrado()),
+                mock(ProdutoService.class), agregacao, new SimpleMeterRegistry(), diretorio, 1000, false, 1000, tentativasMaximas);
+        instancia.afterSingletonsInstantiated();
+        return instancia;
+    }
+
+    private long inserir(int estoque){
+        return jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES ('Produto', 'teste', 10, ?) RETURNING id", Long.class, estoque);
+    }
+
+    private int estoque(long id){
+        return jdbc.queryForObject("SELECT quantidadeestoque FROM produto WHERE id = ?", Integer.class, id);
+    }
+
+    private void gravarJournal(long segmento, long id, int delta) throws Exception {
+        Files.write(diretorio.resolve("estoque-" + segmento + ".journal"),
+                ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(id).putInt(delta).array());
+    }
+}
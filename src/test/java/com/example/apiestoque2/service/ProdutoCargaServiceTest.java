@@ -0,0 +1,63 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import com.example.apiestoque2.models.ResultadoCarga;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class ProdutoCargaServiceTest {
+    private JdbcTemplate jdbc;
+    private ProdutoService produtoService;
+    private ProdutoCargaService cargaService;
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        jdbc = new JdbcTemplate(PostgresEmbutido.dataSourceMigrado());
+        produtoService = mock(ProdutoService.class);
+        cargaService = new ProdutoCargaService(jdbc, new DataSourceTransactionManager(PostgresEmbutido.dataSourceMigrado()),
+                Validation.buildDefaultValidatorFactory().getValidator(), new ObjectMapper(), produtoService, 10);
+    }
+
+    @Test
+    void cacheEInvalidadoSoDepoisDoCommitEBlocoDesfeitoNaoContaDuasVezes() throws Exception {
+        long existente = jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES ('Antigo', 'teste', 10, 1) RETURNING id", Long.class);
+        List<String> nomesVistosNaInvalidacao = new ArrayList<>();
+        doAnswer(invocacao -> {
+            for(Long id : invocacao.<Collection<Long>>getArgument(0)){
+                // outra conexao: so enxerga o novo nome se o bloco ja fez commit
+                nomesVistosNaInvalidacao.add(jdbc.queryForObject("SELECT nome FROM produto WHERE id = ?", String.class, id));
+            }
+            return null;
+        }).when(produtoService).invalidarCache(anyCollection());
+
+        // a descricao longa demais derruba o bloco, que e regravado linha a linha
+        String ndjson = String.join("\n",
+                "{\"id\":" + existente + ",\"nome\":\"Novo\",\"descricao\":\"teste\",\"preco\":20,\"quantidadeEstoque\":2}",
+                "{\"id\":999999,\"nome\":\"Inexistente\",\"descricao\":\"teste\",\"preco\":20,\"quantidadeEstoque\":2}",
+                "{\"nome\":\"Inserido\",\"descricao\":\"teste\",\"preco\":5,\"quantidadeEstoque\":1}",
+                "{\"nome\":\"Longo\",\"descricao\":\"" + "x".repeat(300) + "\",\"preco\":5,\"quantidadeEstoque\":1}");
+        ResultadoCarga resultado = cargaService.carregar(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(resultado.getAtualizados()).isEqualTo(1);
+        assertThat(resultado.getInseridos()).isEqualTo(1);
+        assertThat(resultado.getErros()).containsOnlyKeys(2, 4);
+        assertThat(nomesVistosNaInvalidacao).containsExactly("Novo");
+    }
+}
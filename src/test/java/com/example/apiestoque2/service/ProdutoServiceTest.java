@@ -0,0 +1,251 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.ItemReserva;
+import com.example.apiestoque2.models.Produto;
+import com.example.apiestoque2.models.ProdutosEncontrados;
+import com.example.apiestoque2.models.ResultadoExclusao;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ProdutoServiceTest {
+    private ArmazenamentoProdutos armazenamento;
+    private ProdutoService produtoService;
+
+    @BeforeEach
+    void preparar(){
+        armazenamento = mock(ArmazenamentoProdutos.class);
+        produtoService = new ProdutoService(armazenamento, mock(AgregacaoEstoque.class), new SimpleMeterRegistry(),
+                100, 60, 5000, "", Duration.ofSeconds(5));
+    }
+
+    @Test
+    void leiturasSimultaneasDoMesmoProdutoFazemUmaConsulta() throws Exception {
+        CountDownLatch liberar = new CountDownLatch(1);
+        when(armazenamento.buscarPorId(1L)).thenAnswer(invocacao -> {
+            liberar.await(5, TimeUnit.SECONDS);
+            return Optional.of(produto(1, 10));
+        });
+
+        List<CompletableFuture<Produto>> leituras = List.of(
+                CompletableFuture.supplyAsync(() -> produtoService.buscarProduto(1L)),
+                CompletableFuture.supplyAsync(() -> produtoService.buscarProduto(1L)),
+                CompletableFuture.supplyAsync(() -> produtoService.buscarProduto(1L)));
+        Thread.sleep(200);
+        liberar.countDown();
+
+        for(CompletableFuture<Produto> leitura : leituras){
+            assertThat(leitura.get(5, TimeUnit.SECONDS).getQuantidadeEstoque()).isEqualTo(10);
+        }
+        // copias distintas: alterar uma nao afeta as outras nem o cache
+        assertThat(leituras.get(0).get()).isNotSameAs(leituras.get(1).get());
+        verify(armazenamento, times(1)).buscarPorId(1L);
+    }
+
+    @Test
+    void leituraQueComecouAntesDaEscritaNaoGravaNoCache() throws Exception {
+        CountDownLatch consultando = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        when(armazenamento.buscarPorId(1L))
+                .thenAnswer(invocacao -> {
+                    consultando.countDown();
+                    liberar.await(5, TimeUnit.SECONDS);
+                    return Optional.of(produto(1, 10));
+                })
+                .thenReturn(Optional.of(produto(1, 15)));
+        when(armazenamento.adicionarEstoque(1L, 5)).thenReturn(true);
+
+        CompletableFuture<Produto> antiga = CompletableFuture.supplyAsync(() -> produtoService.buscarProduto(1L));
+        consultando.await(5, TimeUnit.SECONDS);
+        produtoService.adicionarEstoque(1L, 5);
+        liberar.countDown();
+        assertThat(antiga.get(5, TimeUnit.SECONDS).getQuantidadeEstoque()).isEqualTo(10);
+
+        assertThat(produtoService.buscarProduto(1L).getQuantidadeEstoque()).isEqualTo(15);
+        assertThat(produtoService.buscarProduto(1L).getQuantidadeEstoque()).isEqualTo(15);
+        verify(armazenamento, times(2)).buscarPorId(1L);
+    }
+
+    @Test
+    void buscaPorIdsQueComecouAntesDaEscritaNaoGravaNoCache() throws Exception {
+        CountDownLatch consultando = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        when(armazenamento.buscarPorIds(anyCollection()))
+                .thenAnswer(invocacao -> {
+                    consultando.countDown();
+                    liberar.await(5, TimeUnit.SECONDS);
+                    return List.of(produto(1, 10), produto(2, 20));
+                })
+                .thenReturn(List.of(produto(1, 0)));
+
+        CompletableFuture<?> antiga = CompletableFuture.runAsync(() -> produtoService.buscarPorIds(List.of(1L, 2L)));
+        consultando.await(5, TimeUnit.SECONDS);
+        produtoService.invalidarCache(List.of(1L));
+        liberar.countDown();
+        antiga.get(5, TimeUnit.SECONDS);
+
+        // o 2 nao foi escrito e continua no cache; o 1 volta ao armazenamento
+        assertThat(produtoService.buscarPorIds(List.of(1L, 2L)).getProdutos())
+                .extracting(Produto::getQuantidadeEstoque).containsExactly(0, 20);
+        verify(armazenamento, times(2)).buscarPorIds(anyCollection());
+    }
+
+    @Test
+    void comReplicasEscritaRecenteImpedeGravarLeituraNoCache(){
+        produtoService = new ProdutoService(armazenamento, mock(AgregacaoEstoque.class), new SimpleMeterRegistry(),
+                100, 60, 5000, "jdbc:postgresql://replica/db", Duration.ofMinutes(1));
+        when(armazenamento.buscarPorId(1L)).thenReturn(Optional.of(produto(1, 10)));
+        when(armazenamento.retirarEstoque(1L, 1)).thenReturn(true);
+
+        produtoService.retirarEstoque(1L, 1);
+        produtoService.buscarProduto(1L);
+        produtoService.buscarProduto(1L);
+
+        // a replica pode estar atrasada ate a janela de leitura pos-escrita: nada vai para o cache ate la
+        verify(armazenamento, times(2)).buscarPorId(1L);
+    }
+
+    @Test
+    void segundaLeituraVemDoCacheComoCopia(){
+        when(armazenamento.buscarPorId(1L)).thenReturn(Optional.of(produto(1, 10)));
+
+        Produto primeira = produtoService.buscarProduto(1L);
+        primeira.setQuantidadeEstoque(999);
+        Produto segunda = produtoService.buscarProduto(1L);
+
+        assertThat(segunda.getQuantidadeEstoque()).isEqualTo(10);
+        verify(armazenamento, times(1)).buscarPorId(1L);
+        assertThat(produtoService.estatisticasCache()).containsEntry("acertos", 1L).containsEntry("falhas", 1L);
+    }
+
+    // cada escrita tira o produto do cache: a leitura seguinte vai ao armazenamento e volta a ficar em cache
+    @Test
+    void escritasInvalidamOProdutoNoCache(){
+        when(armazenamento.buscarPorId(1L)).thenReturn(Optional.of(produto(1, 10)));
+        when(armazenamento.adicionarEstoque(1L, 1)).thenReturn(true);
+        when(armazenamento.retirarEstoque(1L, 1)).thenReturn(true);
+        List<Runnable> escritas = List.of(
+                () -> produtoService.adicionarEstoque(1L, 1),
+                () -> produtoService.retirarEstoque(1L, 1),
+                () -> produtoService.reservarEstoque(List.of(new ItemReserva(1, 1))),
+                () -> produtoService.excluirProduto(1L),
+                () -> produtoService.excluirProdutos(List.of(1L, 2L)),
+                () -> produtoService.invalidarCache(List.of(1L)));
+
+        produtoService.buscarProduto(1L);
+        for(Runnable escrita : escritas){
+            escrita.run();
+            produtoService.buscarProduto(1L);
+            produtoService.buscarProduto(1L);
+        }
+
+        verify(armazenamento, times(1 + escritas.size())).buscarPorId(1L);
+    }
+
+    // o produto salvo entra no cache como copia: a leitura seguinte nao vai ao armazenamento
+    @Test
+    void salvarGuardaOProdutoSalvoNoCache(){
+        Produto salvo = produto(1, 7);
+        when(armazenamento.salvar(any())).thenReturn(salvo);
+
+        produtoService.salvarProduto(new Produto("Produto 1", "teste", 10, 7));
+        salvo.setQuantidadeEstoque(0);
+
+        assertThat(produtoService.buscarProduto(1L).getQuantidadeEstoque()).isEqualTo(7);
+        verify(armazenamento, never()).buscarPorId(1L);
+    }
+
+    // % e _ do termo sao texto no LIKE, e a pagina vira deslocamento
+    @Test
+    void buscaPorTermoEscapaOPadraoDoLike(){
+        produtoService.buscarPorTermo("50%_off", 1, 99, 2, 3, 20);
+
+        verify(armazenamento).buscarPorTermo("50%_off", "%50\\%\\_off%", 1, 99, 2, 20, 60);
+    }
+
+    @Test
+    void reservaSomaIdsRepetidosEMandaOsTotaisEmOrdemDeId(){
+        produtoService.reservarEstoque(List.of(new ItemReserva(2, 3), new ItemReserva(1, 1), new ItemReserva(2, 4)));
+
+        verify(armazenamento).reservarEstoque(new TreeMap<>(Map.of(1L, 1, 2L, 7)));
+    }
+
+    // dois itens de Integer.MAX_VALUE no mesmo produto davam a volta no int e viravam uma reserva negativa
+    @Test
+    void reservaComTotalAcimaDoIntERecusadaSemTocarNoArmazenamento(){
+        List<ItemReserva> itens = List.of(new ItemReserva(1, Integer.MAX_VALUE), new ItemReserva(1, 2));
+
+        assertThatThrownBy(() -> produtoService.reservarEstoque(itens)).isInstanceOf(IllegalArgumentException.class);
+        verify(armazenamento, never()).reservarEstoque(any());
+    }
+
+    @Test
+    void reservaSemEstoqueNaoInvalidaNemAjustaOsAgregados(){
+        AgregacaoEstoque agregacao = mock(AgregacaoEstoque.class);
+        produtoService = new ProdutoService(armazenamento, agregacao, new SimpleMeterRegistry(),
+                100, 60, 5000, "", Duration.ofSeconds(5));
+        doThrow(new EstoqueInsuficienteException(2)).when(armazenamento).reservarEstoque(any());
+
+        assertThatThrownBy(() -> produtoService.reservarEstoque(List.of(new ItemReserva(1, 1), new ItemReserva(2, 1))))
+                .isInstanceOf(EstoqueInsuficienteException.class);
+        verifyNoInteractions(agregacao);
+    }
+
+    // cache primeiro: so os que faltam vao ao armazenamento, numa chamada so, e a resposta segue a ordem pedida
+    @Test
+    void buscaPorIdsUsaOCacheEBuscaOsQueFaltamDeUmaVez(){
+        when(armazenamento.buscarPorId(2L)).thenReturn(Optional.of(produto(2, 20)));
+        when(armazenamento.buscarPorIds(anyCollection())).thenReturn(List.of(produto(1, 10)));
+        produtoService.buscarProduto(2L);
+
+        ProdutosEncontrados resultado = produtoService.buscarPorIds(List.of(3L, 2L, 1L, 2L));
+
+        assertThat(resultado.getProdutos()).extracting(Produto::getId).containsExactly(2L, 1L);
+        assertThat(resultado.getNaoEncontrados()).containsExactly(3L);
+        verify(armazenamento).buscarPorIds(List.of(3L, 1L));
+
+        produtoService.buscarPorIds(List.of(1L, 2L));
+        verify(armazenamento, times(1)).buscarPorIds(anyCollection());
+    }
+
+    @Test
+    void exclusaoEmLoteMandaIdsSemRepeticaoEInformaOsQueNaoExistiam(){
+        AgregacaoEstoque agregacao = mock(AgregacaoEstoque.class);
+        produtoService = new ProdutoService(armazenamento, agregacao, new SimpleMeterRegistry(),
+                100, 60, 5000, "", Duration.ofSeconds(5));
+        when(armazenamento.excluirTodos(List.of(3L, 1L, 2L))).thenReturn(List.of(1L, 3L));
+
+        ResultadoExclusao resultado = produtoService.excluirProdutos(List.of(3L, 1L, 3L, 2L));
+
+        assertThat(resultado.getExcluidos()).containsExactly(3L, 1L);
+        assertThat(resultado.getNaoEncontrados()).containsExactly(2L);
+        verify(agregacao).remover(3L);
+        verify(agregacao).remover(1L);
+        verify(agregacao, never()).remover(2L);
+    }
+
+    private static Produto produto(long id, int estoque){
+        return new Produto(id, "Produto " + id, "teste", 10, estoque);
+    }
+}
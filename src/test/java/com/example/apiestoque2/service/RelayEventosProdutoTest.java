@@ -0,0 +1,119 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.PostgresEmbutido;
+import com.example.apiestoque2.models.EventoProduto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RelayEventosProdutoTest {
+    private JdbcTemplate jdbc;
+    private NamedParameterJdbcTemplate namedJdbc;
+
+    @BeforeEach
+    void preparar(){
+        PostgresEmbutido.limpar();
+        jdbc = new JdbcTemplate(PostgresEmbutido.dataSourceMigrado());
+        namedJdbc = new NamedParameterJdbcTemplate(jdbc);
+    }
+
+    @Test
+    void entregaEmOrdemEApagaOQueFoiEntregue(){
+        long id = inserir();
+        jdbc.update("UPDATE produto SET preco = 20 WHERE id = ?", id);
+        jdbc.update("DELETE FROM produto WHERE id = ?", id);
+        List<EventoProduto> recebidos = new ArrayList<>();
+
+        relay(recebidos::addAll).publicarPendentes();
+
+        assertThat(recebidos).extracting(EventoProduto::getTipo).containsExactly("CRIADO", "ATUALIZADO", "EXCLUIDO");
+        assertThat(recebidos).extracting(EventoProduto::getRevisao).isSorted();
+        assertThat(pendentes()).isZero();
+    }
+
+    @Test
+    void consumidorRodaDepoisDoCommitDaReservaEOutraInstanciaNaoPegaOMesmoLote(){
+        inserir();
+        inserir();
+        List<EventoProduto> daOutraInstancia = new ArrayList<>();
+        RelayEventosProduto outraInstancia = relay(daOutraInstancia::addAll);
+        List<Integer> reservadosDuranteAEntrega = new ArrayList<>();
+
+        relay(eventos -> {
+            // outra conexao ja enxerga a reserva: nenhuma transacao fica aberta durante a entrega
+            reservadosDuranteAEntrega.add(jdbc.queryForObject(
+                    "SELECT count(*) FROM produto_evento WHERE reservado_ate > now()", Integer.class));
+            outraInstancia.publicarPendentes();
+        }).publicarPendentes();
+
+        assertThat(reservadosDuranteAEntrega).containsExactly(2);
+        assertThat(daOutraInstancia).isEmpty();
+        assertThat(pendentes()).isZero();
+    }
+
+    @Test
+    void falhaNaEntregaDesfazAReservaEOLoteVoltaNoProximoCiclo(){
+        inserir();
+        relay(eventos -> {
+            throw new IllegalStateException("consumidor fora do ar");
+        }).publicarPendentes();
+        assertThat(pendentes()).isEqualTo(1);
+        assertThat(jdbc.queryForObject("SELECT count(*) FROM produto_evento WHERE reservado_ate IS NULL", Integer.class)).isEqualTo(1);
+
+        List<EventoProduto> recebidos = new ArrayList<>();
+        relay(recebidos::addAll).publicarPendentes();
+        assertThat(recebidos).hasSize(1);
+    }
+
+    @Test
+    void reservaVencidaDeUmaInstanciaQueCaiuEEntregueDeNovo(){
+        inserir();
+        jdbc.update("UPDATE produto_evento SET reservado_ate = now() + interval '1 minute'");
+        List<EventoProduto> recebidos = new ArrayList<>();
+        relay(recebidos::addAll).publicarPendentes();
+        assertThat(recebidos).isEmpty();
+
+        jdbc.update("UPDATE produto_evento SET reservado_ate = now() - interval '1 second'");
+        relay(recebidos::addAll).publicarPendentes();
+        assertThat(recebidos).hasSize(1);
+    }
+
+    // conexao de uma instancia com produtos.eventos.habilitado=false (connection-init-sql): nada vai para o outbox,
+    // mas a revisao e o registro de exclusao continuam
+    @Test
+    void conexaoComEventosDesligadosNaoGravaNoOutbox() throws Exception {
+        try(Connection conexao = PostgresEmbutido.dataSource().getConnection();
+            Statement comando = conexao.createStatement()){
+            comando.execute("SET produtos.eventos = 'false'");
+            comando.execute("INSERT INTO produto (id, nome, descricao, preco, quantidadeestoque) VALUES (900, 'Produto', 'teste', 10, 1)");
+            comando.execute("UPDATE produto SET preco = 20 WHERE id = 900");
+            comando.execute("DELETE FROM produto WHERE id = 900");
+        }
+
+        assertThat(pendentes()).isZero();
+        assertThat(jdbc.queryForObject("SELECT count(*) FROM produto_exclusao WHERE id = 900", Integer.class)).isEqualTo(1);
+        inserir();
+        assertThat(pendentes()).isEqualTo(1);
+    }
+
+    private RelayEventosProduto relay(ConsumidorEventosProduto consumidor){
+        return new RelayEventosProduto(namedJdbc, List.of(consumidor), 500, 60);
+    }
+
+    private long inserir(){
+        return jdbc.queryForObject("INSERT INTO produto (nome, descricao, preco, quantidadeestoque) " +
+                "VALUES ('Produto', 'teste', 10, 1) RETURNING id", Long.class);
+    }
+
+    private int pendentes(){
+        return jdbc.queryForObject("SELECT count(*) FROM produto_evento", Integer.class);
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.apiestoque2.service;
+
+import com.example.apiestoque2.models.Produto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Validation;
+import jakarta.validation.ValidatorFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// JSON Merge Patch: campos ausentes ficam como estao, so os enviados passam pelo tipo e pelas restricoes da entidade
+class ValidadorProdutoTest {
+    private static ValidatorFactory fabrica;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ValidadorProduto validador;
+    private Produto produto;
+
+    @BeforeAll
+    static void criarFabrica(){
+        fabrica = Validation.buildDefaultValidatorFactory();
+    }
+
+    @AfterAll
+    static void fecharFabrica(){
+        fabrica.close();
+    }
+
+    @BeforeEach
+    void preparar(){
+        validador = new ValidadorProduto(fabrica.getValidator());
+        produto = new Produto(1, "Caneta", "azul", 3.5, 10);
+    }
+
+    @Test
+    void soOsCamposEnviadosSaoAlterados() throws Exception {
+        List<String> campos = new ArrayList<>();
+
+        Map<String, String> erros = aplicar("{\"preco\": 4, \"id\": 99, \"revisao\": 7}", campos);
+
+        assertThat(erros).isEmpty();
+        assertThat(campos).containsExactly("preco");
+        assertThat(produto.getPreco()).isEqualTo(4);
+        assertThat(produto.getId()).isEqualTo(1);
+        assertThat(produto.getNome()).isEqualTo("Caneta");
+        assertThat(produto.getQuantidadeEstoque()).isEqualTo(10);
+        assertThat(validador.validarCampos(produto, campos)).isEmpty();
+    }
+
+    @Test
+    void tipoErradoENuloEmCampoObrigatorioSaoRecusadosAntesDasRestricoes() throws Exception {
+        Map<String, String> erros = aplicar("{\"preco\": \"caro\", \"quantidadeEstoque\": 1.5, \"descricao\": 3}", new ArrayList<>());
+
+        assertThat(erros)
+                .containsEntry("preco", "deve ser numérico")
+                .containsEntry("quantidadeEstoque", "deve ser numérico")
+                .containsEntry("descricao", "deve ser texto");
+        assertThat(aplicar("{\"quantidadeEstoque\": null}", new ArrayList<>()))
+                .containsEntry("quantidadeEstoque", "A quantidade não pode ser nula");
+        assertThat(aplicar("[]", new ArrayList<>())).containsKey("geral");
+    }
+
+    // null em campo opcional apaga o valor (RFC 7396); em campo com @NotNull vira erro da restricao
+    @Test
+    void restricoesDaEntidadeValemSoParaOsCamposEnviados() throws Exception {
+        List<String> campos = new ArrayList<>();
+        assertThat(aplicar("{\"nome\": \"A\", \"descricao\": null, \"quantidadeEstoque\": -1}", campos)).isEmpty();
+
+        Map<String, String> erros = validador.validarCampos(produto, campos);
+
+        assertThat(erros)
+                .containsEntry("nome", "O nome deve ter pelo menos 2 caracteres")
+                .containsEntry("quantidadeEstoque", "A quantidade deve ser pelo menos 0")
+                .doesNotContainKey("descricao");
+        assertThat(produto.getDescricao()).isNull();
+
+        List<String> soNome = new ArrayList<>();
+        aplicar("{\"nome\": null}", soNome);
+        assertThat(validador.validarCampos(produto, soNome)).containsEntry("nome", "O nome não pode ser nulo");
+    }
+
+    private Map<String, String> aplicar(String json, List<String> campos) throws Exception {
+        return validador.aplicarAtualizacoes(produto, objectMapper.readTree(json), campos);
+    }
+}